@@ -0,0 +1,44 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A generated corpus and its index in a temporary directory, shared by
+ * the search benchmarks.  The index root is redirected so benchmark runs
+ * never touch the real indexes.
+ */
+class BenchmarkIndex {
+    final Path mBase;
+    final CorpusGenerator.Corpus mCorpus;
+
+    private BenchmarkIndex(Path base, CorpusGenerator.Corpus corpus) {
+        mBase = base;
+        mCorpus = corpus;
+    }
+
+    /** Generate files and, unless indexed is false, index them. */
+    static BenchmarkIndex create(int files, boolean indexed) throws IOException {
+        Path base = Files.createTempDirectory("lightgrok-bench");
+        PathProvider.setRootIndexDirectory(base.resolve("index"));
+        CorpusGenerator.Corpus corpus =
+            CorpusGenerator.generate(base.resolve("src"), files, CorpusGenerator.DEFAULT_SEED);
+        if (indexed) {
+            Indexer.createIndexerWithRoot(corpus.root.toString()).doIndex();
+        }
+        return new BenchmarkIndex(base, corpus);
+    }
+
+    String root() {
+        return mCorpus.root.toString();
+    }
+
+    Path indexRoot() {
+        return PathProvider.rootIndexDirectory();
+    }
+
+    void delete() throws IOException {
+        CorpusGenerator.delete(mBase);
+    }
+}
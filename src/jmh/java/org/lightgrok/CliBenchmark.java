@@ -0,0 +1,87 @@
+package org.lightgrok;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What a user waits for: `lightgrok -root ... -search ...` run as a
+ * fresh JVM, startup and index open included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CliBenchmark {
+    @Param({"2000"})
+    int files;
+
+    @Param({CorpusGenerator.RARE, CorpusGenerator.COMMON})
+    String term;
+
+    // true measures answers from the ResultCache after the first run
+    @Param({"false", "true"})
+    boolean cached;
+
+    BenchmarkIndex mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mIndex = BenchmarkIndex.create(files, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mIndex.delete();
+    }
+
+    @Benchmark
+    public int search() throws Exception {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Dlightgrok.index=" + mIndex.indexRoot());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("LightGrok");
+        command.add("-root");
+        command.add(mIndex.root());
+        command.add("-search");
+        command.add(term);
+        if (!cached) {
+            command.add("-no-cache");
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        // Drain, the output has to be produced but isn't looked at.
+        int bytes = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = process.getInputStream()) {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                bytes += n;
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("lightgrok exited with " + process.exitValue());
+        }
+        return bytes;
+    }
+}
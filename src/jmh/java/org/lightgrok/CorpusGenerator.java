@@ -0,0 +1,162 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Writes a synthetic source tree for the benchmarks.  The same files and
+ * seed always give byte for byte the same tree, so numbers of different
+ * runs and machines can be compared.
+ *
+ * The tree looks roughly like a C++/Java/Python project: 16 top-level
+ * directories of 8 subdirectories each, files of 20 to 400 lines built
+ * from a small vocabulary.  RARE is in about one file of a hundred,
+ * COMMON in nearly every one.
+ *
+ * Usage: CorpusGenerator directory [files [seed]]
+ */
+public class CorpusGenerator {
+    public static final String RARE = "needleToken";
+    public static final String COMMON = "return";
+    public static final long DEFAULT_SEED = 20170708L;
+
+    static final String[] WORDS = {
+        "buffer", "index", "search", "reader", "writer", "file", "path", "node",
+        "token", "stream", "query", "score", "cache", "count", "size", "offset",
+        "length", "value", "key", "entry", "table", "hash", "doc", "term",
+        "field", "filter", "match", "line", "root", "shard", "segment", "merge",
+    };
+    static final String[] EXTENSIONS = { ".cc", ".h", ".java", ".py", ".txt" };
+
+    /** What was written. */
+    public static class Corpus {
+        public final Path root;
+        public final int files;
+        public final long bytes;
+
+        Corpus(Path root, int files, long bytes) {
+            this.root = root;
+            this.files = files;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Random mRandom;
+
+    private CorpusGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    public static Corpus generate(Path root, int files, long seed) throws IOException {
+        return new CorpusGenerator(seed).write(root, files);
+    }
+
+    Corpus write(Path root, int files) throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < files; i++) {
+            Path dir = root.resolve("dir" + (i % 16)).resolve("sub" + (i / 16 % 8));
+            Files.createDirectories(dir);
+            String extension = EXTENSIONS[mRandom.nextInt(EXTENSIONS.length)];
+            Path file = dir.resolve(identifier(2) + i + extension);
+            String text = fileText(extension);
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            bytes += text.length();
+        }
+        return new Corpus(root, files, bytes);
+    }
+
+    String fileText(String extension) {
+        StringBuilder text = new StringBuilder();
+        int lines = 20 + mRandom.nextInt(380);
+        boolean rare = mRandom.nextInt(100) == 0;
+        for (int line = 0; line < lines; line++) {
+            if (rare && line == lines / 2) {
+                text.append("    // TODO ").append(RARE).append(" here\n");
+                continue;
+            }
+            switch (mRandom.nextInt(6)) {
+            case 0:
+                if (extension.equals(".py")) {
+                    text.append("def ").append(identifier(2)).append("(self, ")
+                        .append(identifier(1)).append("):\n");
+                } else {
+                    text.append("int ").append(identifier(3)).append("(int ")
+                        .append(identifier(1)).append(") {\n");
+                }
+                break;
+            case 1:
+                text.append("    ").append(COMMON).append(' ').append(identifier(2))
+                    .append(" + ").append(mRandom.nextInt(1000)).append(";\n");
+                break;
+            case 2:
+                text.append("    // ").append(word()).append(' ').append(word()).append(' ')
+                    .append(word()).append(' ').append(word()).append('\n');
+                break;
+            case 3:
+                text.append('\n');
+                break;
+            default:
+                text.append("    ").append(identifier(2)).append(" = ").append(identifier(1))
+                    .append('.').append(identifier(2)).append("(").append(identifier(1))
+                    .append(", ").append(mRandom.nextInt(64)).append(");\n");
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    String word() {
+        return WORDS[mRandom.nextInt(WORDS.length)];
+    }
+
+    // camelCase of parts words
+    String identifier(int parts) {
+        StringBuilder id = new StringBuilder(word());
+        for (int i = 1; i < parts; i++) {
+            String word = word();
+            id.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+        return id.toString();
+    }
+
+    /** Remove a tree written by generate, or an index directory. */
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                    throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CorpusGenerator directory [files [seed]]");
+            return;
+        }
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        Corpus corpus = generate(Paths.get(args[0]), files, seed);
+        System.out.println(corpus.files + " files, " + corpus.bytes + " bytes in " + corpus.root);
+    }
+}
@@ -0,0 +1,75 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full index builds of a generated corpus.  Besides builds/s the
+ * counters report files/s and megabytes/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class IndexBenchmark {
+    @Param({"2000"})
+    int files;
+
+    @Param({"1", "4"})
+    int threads;
+
+    @Param({"1", "4"})
+    int shards;
+
+    BenchmarkIndex mIndex;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Volume {
+        public long files;
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            files = 0;
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mIndex = BenchmarkIndex.create(files, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mIndex.delete();
+    }
+
+    @Benchmark
+    public void fullIndex(Volume volume) {
+        Indexer indexer = Indexer.createIndexerWithRoot(mIndex.root());
+        indexer.setThreads(threads);
+        indexer.setShards(shards);
+        indexer.doIndex();
+        volume.files += mIndex.mCorpus.files;
+        volume.megabytes += mIndex.mCorpus.bytes / (1024.0 * 1024.0);
+    }
+}
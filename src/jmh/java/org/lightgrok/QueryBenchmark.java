@@ -0,0 +1,73 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.WildcardQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the index lookup alone, no files are read: the leading
+ * wildcard query of old indexes against the trigram and term queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    @Param({"2000"})
+    int files;
+
+    @Param({CorpusGenerator.RARE, CorpusGenerator.COMMON})
+    String term;
+
+    BenchmarkIndex mIndex;
+    IndexReader mReader;
+    IndexSearcher mSearcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mIndex = BenchmarkIndex.create(files, true);
+        mReader = IndexShards.openReader(PathProvider.indexDirectory(mIndex.root()));
+        mSearcher = new IndexSearcher(mReader);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mReader.close();
+        mIndex.delete();
+    }
+
+    @Benchmark
+    public int wildcardQuery() throws IOException {
+        WildcardQuery query = new WildcardQuery(new Term("contents", "*" + term.toLowerCase() + "*"));
+        return mSearcher.search(query, 5000).totalHits;
+    }
+
+    @Benchmark
+    public int trigramQuery() throws IOException {
+        return mSearcher.search(TrigramAnalyzer.substringQuery(term), 5000).totalHits;
+    }
+
+    @Benchmark
+    public int termQuery() throws IOException {
+        return mSearcher.search(Searcher.wordQuery(term), 5000).totalHits;
+    }
+}
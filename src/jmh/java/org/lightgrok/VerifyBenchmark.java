@@ -0,0 +1,93 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole search on an open index: the query plus the verification
+ * loop of doSearchInternal that turns candidate documents into grep
+ * lines.  Output goes nowhere.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerifyBenchmark {
+    @Param({"2000"})
+    int files;
+
+    @Param({CorpusGenerator.RARE, CorpusGenerator.COMMON})
+    String term;
+
+    @Param({"substring", "word", "regex"})
+    String mode;
+
+    @Param({"1", "4"})
+    int threads;
+
+    BenchmarkIndex mIndex;
+    IndexReader mReader;
+    IndexSearcher mSearcher;
+    ExecutorService mExecutor;
+    PrintStream mNull;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mIndex = BenchmarkIndex.create(files, true);
+        mReader = IndexShards.openReader(PathProvider.indexDirectory(mIndex.root()));
+        // like -serve, one pool for segment search and verification
+        mExecutor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        mSearcher = new IndexSearcher(mReader, mExecutor);
+        mNull = new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+        mReader.close();
+        mIndex.delete();
+    }
+
+    @Benchmark
+    public void search() throws Exception {
+        Searcher searcher = Searcher.createSearcherWithRoot(mIndex.root());
+        searcher.setOutput(mNull);
+        searcher.setThreads(threads);
+        searcher.setExecutor(mExecutor);
+        searcher.setWord(mode.equals("word"));
+        searcher.setRegex(mode.equals("regex"));
+        searcher.doSearch(mSearcher, mode.equals("regex") ? "\\b" + term + "\\b" : term);
+    }
+}
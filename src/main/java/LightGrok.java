@@ -5,10 +5,20 @@ import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
+import org.lightgrok.IndexWatcher;
 import org.lightgrok.Indexer;
 import org.lightgrok.PathProvider;
+import org.lightgrok.SearchClient;
+import org.lightgrok.SearchServer;
 import org.lightgrok.Searcher;
+import org.lightgrok.Stats;
+import org.lightgrok.Workspace;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +35,66 @@ public class LightGrok {
     @Option(name="-strip-root-lead")
     boolean stripRootLead = false;
 
+    @Option(name="-incremental")
+    boolean incremental = false;
+
+    @Option(name="-threads")
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name="-ignore")
+    List<String> ignores = new ArrayList<String>();
+
+    @Option(name="-shards")
+    int shards = 0;
+
+    @Option(name="-shard")
+    int shard = -1;
+
+    @Option(name="-watch")
+    boolean watch = false;
+
+    @Option(name="-def")
+    String def = null;
+
+    @Option(name="-file")
+    String file = null;
+
+    @Option(name="-workspace")
+    boolean workspace = false;
+
+    @Option(name="-workspace-list")
+    String workspaceList = null;
+
+    @Option(name="-regex")
+    boolean regex = false;
+
+    @Option(name="-word")
+    boolean word = false;
+
+    @Option(name="-stream")
+    boolean stream = false;
+
+    @Option(name="-max-count")
+    int maxCount = 0;
+
+    @Option(name="-no-cache")
+    boolean noCache = false;
+
+    @Option(name="-stats")
+    boolean stats = false;
+
+    @Option(name="-stats-json")
+    String statsJson = null;
+
+    @Option(name="-serve")
+    boolean serve = false;
+
+    @Option(name="-client")
+    boolean client = false;
+
+    @Option(name="-port")
+    int port = SearchServer.DEFAULT_PORT;
+
     // receives other command line parameters than options
     @Argument
     private List<String> arguments = new ArrayList<String>();
@@ -33,7 +103,27 @@ public class LightGrok {
     public String getUsage() {
         return "Usage: \n" +
             "  lightgrok -root directory                --> index directory with lightgrok \n" +
-            "  lightgrok -root directory -search key    --> search directory's index with key \n";
+            "  lightgrok -root directory -incremental   --> only re-index files changed since last run \n" +
+            "  lightgrok -root directory -ignore glob   --> don't index what matches glob (repeatable) \n" +
+            "  lightgrok -root directory -shards N      --> split the index into N shards, built side by side \n" +
+            "  lightgrok -root directory -shard K       --> only rebuild shard K of a sharded index \n" +
+            "  lightgrok -root directory -watch         --> index, then keep the index updated as files change \n" +
+            "  lightgrok -root directory -threads N     --> index or search with N worker threads \n" +
+            "  lightgrok -root directory -search key    --> search directory's index with key \n" +
+            "  lightgrok -root directory -def symbol    --> list where symbol is defined \n" +
+            "  lightgrok -root directory -file name     --> list files whose path fuzzily matches name \n" +
+            "  lightgrok -workspace -search key         --> search every indexed root at once \n" +
+            "  lightgrok -workspace-list file ...       --> search the indexed roots listed in file at once \n" +
+            "  lightgrok ... -search re -regex          --> search with java regex re, ignoring case \n" +
+            "  lightgrok ... -search key -word          --> match key as a whole identifier or word of one \n" +
+            "  lightgrok ... -search key -stream        --> print each hit as soon as it is found \n" +
+            "  lightgrok ... -search key -max-count N   --> stop after N matching lines \n" +
+            "  lightgrok ... -search key -no-cache      --> search even if the same search was cached \n" +
+            "  lightgrok ... -stats                     --> print time, bytes and allocation per stage \n" +
+            "  lightgrok ... -stats-json file           --> write the same, with histograms, as JSON \n" +
+            "  lightgrok -serve [-port N]               --> keep indexes open and answer searches of this user only \n" +
+            "                                               (clients send the secret in <index>/server-N.token) \n" +
+            "  lightgrok -client ...                    --> send the search to a running -serve \n";
     }
 
 
@@ -56,21 +146,183 @@ public class LightGrok {
 
         PathProvider.setStripRootLead(stripRootLead);
 
-        if (root != null && search == null) {
+        if (serve) {
+            serve();
+            return;
+        }
+        // -stats-json is written and -workspace-list read here, by whoever
+    // asked for it
+        if (client && (root != null || workspace) && query() != null
+            && statsJson == null && workspaceList == null) {
+            try {
+                if (SearchClient.forward(port, absolutePaths(args), System.out)) {
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            logger.info("no server on port " + port + ", searching locally");
+        }
+        run(System.out, null);
+    }
+
+    // what to search for, in whichever mode was asked for
+    String query() {
+        return search != null ? search : def != null ? def : file;
+    }
+
+    // The daemon runs in another directory: relative paths are resolved
+    // here before the command line is sent.
+    static String[] absolutePaths(String[] args) {
+        String[] absolute = args.clone();
+        for (int i = 0; i + 1 < absolute.length; i++) {
+            if (absolute[i].equals("-root")) {
+                absolute[i + 1] = Paths.get(absolute[i + 1]).toAbsolutePath().toString();
+            }
+        }
+        return absolute;
+    }
+
+    // The daemon only searches for others; indexing, -watch,
+    // -stats-json and -workspace-list would run as its user, with its
+    // files.
+    boolean isServable() {
+        return query() != null && !watch && statsJson == null && workspaceList == null;
+    }
+
+    void run(PrintStream out, SearchServer server) {
+        Logger logger = Logger.getLogger("lightgrok");
+        if (root != null && query() == null && watch) {
+            logger.info("watching: " + root);
+            IndexWatcher watcher = IndexWatcher.createWatcherWithRoot(root);
+            watcher.setThreads(threads);
+            watcher.setIgnorePatterns(ignores);
+            watcher.setShards(shards);
+            try {
+                watcher.doWatch();
+            } catch (IOException e) {
+                e.printStackTrace(out);
+            }
+            return;
+        }
+        Stats stats = createStats(server);
+        if (root != null && query() == null) {
             logger.info("root is: " + root);
-            Indexer.createIndexerWithRoot(root).doIndex();
+            Indexer indexer = Indexer.createIndexerWithRoot(root);
+            indexer.setStats(stats);
+            indexer.setIncremental(incremental);
+            indexer.setThreads(threads);
+            indexer.setIgnorePatterns(ignores);
+            indexer.setShards(shards);
+            indexer.setOnlyShard(shard);
+            indexer.doIndex();
+            try {
+                reportStats(stats, out, server);
+            } catch (IOException e) {
+                e.printStackTrace(out);
+            }
             return;
         }
-        if (root != null && search != null) {
-            logger.info("search is: " + search);
+        if ((workspace || workspaceList != null) && query() != null) {
+            logger.info("workspace search is: " + query());
             try {
-                Searcher.createSearcherWithRoot(root).doSearch(search);
+                Workspace ws = workspaceList != null
+                    ? Workspace.createWorkspaceFromFile(workspaceList)
+                    : Workspace.createWorkspace();
+                ws.setThreads(threads);
+                ws.setStripRootLead(stripRootLead);
+                if (server != null) {
+                    ws.setExecutor(server.searchPool());
+                }
+                ws.doSearch(query(), new Workspace.Configurer() {
+                        @Override
+                        public void configure(Searcher searcher, String r) throws IOException {
+                            configureSearcher(searcher, r, stats, server);
+                        }
+                    }, out);
+                reportStats(stats, out, server);
             } catch (Exception e) {
-                e.printStackTrace();
+                e.printStackTrace(out);
             }
             return;
         }
-        System.out.println( new LightGrok().getUsage());
+        if (root != null && query() != null) {
+            logger.info("search is: " + query());
+            try {
+                Searcher searcher = Searcher.createSearcherWithRoot(root);
+                searcher.setStripRootLead(stripRootLead);
+                searcher.setOutput(out);
+                searcher.setThreads(threads);
+                configureSearcher(searcher, root, stats, server);
+                if (server != null) {
+                    searcher.setExecutor(server.searchPool());
+                }
+                searcher.doSearch(query());
+                reportStats(stats, out, server);
+            } catch (Exception e) {
+                e.printStackTrace(out);
+            }
+            return;
+        }
+        out.println( new LightGrok().getUsage());
+    }
+
+    void configureSearcher(Searcher searcher, String r, Stats s, SearchServer server)
+        throws IOException {
+        searcher.setStreaming(stream);
+        searcher.setWord(word);
+        searcher.setRegex(regex);
+        searcher.setDefinitions(search == null && def != null);
+        searcher.setFiles(search == null && def == null);
+        searcher.setMaxCount(maxCount);
+        searcher.setStats(s);
+        searcher.setCache(!noCache);
+        if (server != null) {
+            searcher.setSearcherManager(server.managerFor(r));
+        }
+    }
+
+    Stats createStats(SearchServer server) {
+        if (server != null) {
+            // adds up in the daemon's MBean either way
+            return Stats.createWithParent(server.stats());
+        }
+        return stats || statsJson != null ? Stats.create() : Stats.DISABLED;
+    }
+
+    void reportStats(Stats s, PrintStream out, SearchServer server) throws IOException {
+        if (stats) {
+            // keep grep output clean, unless stderr is the daemon's
+            PrintStream report = server != null ? out : System.err;
+            report.print(s.getReport());
+            report.flush();
+        }
+        if (statsJson != null) {
+            Files.write(Paths.get(statsJson), s.getJson().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    void serve() {
+        SearchServer server = SearchServer.createServerOnPort(port, new SearchServer.RequestHandler() {
+                @Override
+                public void handle(SearchServer server, String[] args, PrintStream out)
+                    throws Exception {
+                    // Every request gets a fresh set of options.
+                    LightGrok request = new LightGrok();
+                    new CmdLineParser(request).parseArgument(args);
+                    if (!request.isServable()) {
+                        out.println("lightgrok server: only -search, -def and -file are served");
+                        return;
+                    }
+                    request.run(out, server);
+                }
+            });
+        try {
+            server.serve();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,198 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.pattern.PatternTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+/**
+ * Analyzer for source code, used for the contents field by the indexer
+ * and for parsing queries by the searcher so both see the same terms.
+ *
+ * Tokens are identifiers (letters, digits, '_' and '$') and names
+ * qualified with "::", "." or "->".  Besides the token itself it emits,
+ * at the same position, each identifier of a qualified name and the
+ * camelCase / snake_case words of each identifier, all lowercased:
+ *
+ *   Foo::parseHTTPHeader_v2  ->  foo::parsehttpheader_v2, foo,
+ *                                parsehttpheader_v2, parse, http, header, v2
+ *
+ * Tokens and parts longer than MAX_TOKEN_LENGTH are indexed as
+ * LONG_TOKEN, which keeps their offsets: a substring of one is found by trigrams but not
+ * by any term, and the searcher reads those lines back to check.
+ */
+public class CodeAnalyzer extends Analyzer {
+    static final Pattern TOKEN = Pattern.compile(
+        "[\\p{L}\\p{N}_$]+(?:(?:::|\\.|->)[\\p{L}\\p{N}_$]+)*");
+    static final Pattern QUALIFIER = Pattern.compile("::|\\.|->");
+
+    // Longer tokens are data (hashes, blobs), not names anyone searches.
+    static final int MAX_TOKEN_LENGTH = 255;
+    // No query can produce it, tokens are made of identifier chars.
+    static final String LONG_TOKEN = "\u0000";
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer source = new PatternTokenizer(TOKEN, 0);
+        // split first: the parts of a long qualified name are still names
+        TokenStream result = new IdentifierPartsFilter(source);
+        result = new LongTokenFilter(result);
+        result = new LowerCaseFilter(result);
+        return new TokenStreamComponents(source, result);
+    }
+
+    /**
+     * Whether every occurrence of query lies inside a single token, so
+     * the terms containing it are exactly the places it occurs.
+     */
+    public static boolean isIdentifierQuery(String query) {
+        if (query.isEmpty() || query.length() > MAX_TOKEN_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < query.length(); i++) {
+            if (!isIdentifierChar(query.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * The camelCase / snake_case words of an identifier, as [start, end)
+     * pairs.  Digits stick to the word they follow.
+     */
+    static List<int[]> splitWords(CharSequence s, int start, int end) {
+        List<int[]> words = new ArrayList<int[]>();
+        int wordStart = -1;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '_' || c == '$') {
+                if (wordStart != -1) {
+                    words.add(new int[] { wordStart, i });
+                    wordStart = -1;
+                }
+                continue;
+            }
+            if (wordStart == -1) {
+                wordStart = i;
+                continue;
+            }
+            char prev = s.charAt(i - 1);
+            boolean boundary = Character.isUpperCase(c)
+                && (!Character.isUpperCase(prev)
+                    // the 'H' of "HTTPHeader" starts a new word
+                    || (i + 1 < end && Character.isLowerCase(s.charAt(i + 1))));
+            if (boundary) {
+                words.add(new int[] { wordStart, i });
+                wordStart = i;
+            }
+        }
+        if (wordStart != -1) {
+            words.add(new int[] { wordStart, end });
+        }
+        return words;
+    }
+
+    /** Replaces tokens longer than MAX_TOKEN_LENGTH by LONG_TOKEN. */
+    static final class LongTokenFilter extends TokenFilter {
+        private final CharTermAttribute mTerm = addAttribute(CharTermAttribute.class);
+
+        LongTokenFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken()) {
+                return false;
+            }
+            if (mTerm.length() > MAX_TOKEN_LENGTH) {
+                mTerm.setEmpty().append(LONG_TOKEN);
+            }
+            return true;
+        }
+    }
+
+    /** Adds the stacked sub-tokens described above after every token. */
+    static final class IdentifierPartsFilter extends TokenFilter {
+        private final CharTermAttribute mTerm = addAttribute(CharTermAttribute.class);
+        private final OffsetAttribute mOffset = addAttribute(OffsetAttribute.class);
+        private final PositionIncrementAttribute mPosition =
+            addAttribute(PositionIncrementAttribute.class);
+
+        // [start, end) into mToken, relative to mStartOffset
+        private final List<int[]> mPending = new ArrayList<int[]>();
+        private String mToken = null;
+        private int mStartOffset = 0;
+        private int mNext = 0;
+
+        IdentifierPartsFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (mNext < mPending.size()) {
+                int[] part = mPending.get(mNext++);
+                clearAttributes();
+                mTerm.append(mToken, part[0], part[1]);
+                mOffset.setOffset(mStartOffset + part[0], mStartOffset + part[1]);
+                mPosition.setPositionIncrement(0);
+                return true;
+            }
+            if (!input.incrementToken()) {
+                return false;
+            }
+            mToken = mTerm.toString();
+            mStartOffset = mOffset.startOffset();
+            mPending.clear();
+            mNext = 0;
+            collectParts();
+            return true;
+        }
+
+        private void collectParts() {
+            List<int[]> identifiers = new ArrayList<int[]>();
+            Matcher qualifier = QUALIFIER.matcher(mToken);
+            int start = 0;
+            while (qualifier.find()) {
+                identifiers.add(new int[] { start, qualifier.start() });
+                start = qualifier.end();
+            }
+            identifiers.add(new int[] { start, mToken.length() });
+
+            for (int[] identifier : identifiers) {
+                if (identifiers.size() > 1) {
+                    mPending.add(identifier);
+                }
+                List<int[]> words = splitWords(mToken, identifier[0], identifier[1]);
+                if (words.size() > 1) {
+                    mPending.addAll(words);
+                }
+            }
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            mPending.clear();
+            mNext = 0;
+            mToken = null;
+        }
+    }
+}
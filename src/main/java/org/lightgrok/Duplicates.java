@@ -0,0 +1,279 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Files with the same content, e.g. vendored copies of a library, are
+ * analyzed and stored once per shard.
+ *
+ * The first file of a content seen in a shard becomes its canonical
+ * document, indexed as usual.  Every other copy gets an alias document
+ * with just its path, stamps and the path of the canonical document in
+ * DUPOF, so it's known to the walk, -file and deletes, but adds no
+ * postings.  Both carry a digest of the content in DIGEST.  Searches
+ * that hit a canonical document report its aliases as well.
+ *
+ * An alias is orphaned when its canonical file changes or goes away;
+ * before every commit each orphan is pointed at another canonical
+ * document of its content, or the first of them becomes one, see
+ * Indexer.repairDuplicates.
+ */
+public class Duplicates {
+    // murmur3_128 of the content, as doc values on every document
+    static final String DIGEST = "digest";
+    // path of the canonical document, indexed and as doc values on aliases
+    static final String DUPOF = "dupof";
+
+    /** An alias document as read back from the index. */
+    static final class Alias {
+        final String path;
+        final long modified;
+        final long size;
+        final String digest;
+        final String canonical;
+
+        Alias(String path, long modified, long size, String digest, String canonical) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.digest = digest;
+            this.canonical = canonical;
+        }
+    }
+
+    static final Comparator<Alias> BY_PATH = new Comparator<Alias>() {
+            @Override
+            public int compare(Alias a, Alias b) {
+                return a.path.compareTo(b.path);
+            }
+        };
+
+    // digest -> canonical path, per shard
+    private final List<Map<String, String>> mCanonical;
+
+    Duplicates(int shards) {
+        mCanonical = new ArrayList<Map<String, String>>();
+        for (int i = 0; i < shards; i++) {
+            mCanonical.add(new ConcurrentHashMap<String, String>());
+        }
+    }
+
+    static String digest(ByteBuffer bytes) {
+        if (bytes.hasArray()) {
+            return Hashing.murmur3_128()
+                .hashBytes(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining())
+                .toString();
+        }
+        // mapped, hashed through a chunk at a time
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        ByteBuffer content = bytes.duplicate();
+        byte[] chunk = new byte[64 * 1024];
+        while (content.hasRemaining()) {
+            int n = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, n);
+            hasher.putBytes(chunk, 0, n);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * The canonical path of digest in shard; path itself when it's the
+     * first file with that content, or was the canonical one already.
+     */
+    String canonicalFor(int shard, String digest, String path) {
+        String canonical = mCanonical.get(shard).putIfAbsent(digest, path);
+        return canonical == null ? path : canonical;
+    }
+
+    String canonical(int shard, String digest) {
+        return mCanonical.get(shard).get(digest);
+    }
+
+    void setCanonical(int shard, String digest, String path) {
+        mCanonical.get(shard).put(digest, path);
+    }
+
+    /** Learn the canonical documents already in the index of shard. */
+    void load(int shard, IndexReader reader) throws IOException {
+        Map<String, String> canonical = mCanonical.get(shard);
+        for (LeafReaderContext ctx : reader.leaves()) {
+            LeafReader leaf = ctx.reader();
+            SortedDocValues digests = leaf.getSortedDocValues(DIGEST);
+            SortedDocValues dupof = leaf.getSortedDocValues(DUPOF);
+            Terms terms = leaf.terms("path");
+            if (digests == null || terms == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.getLiveDocs();
+            TermsEnum te = terms.iterator();
+            PostingsEnum pe = null;
+            BytesRef term;
+            while ((term = te.next()) != null) {
+                pe = te.postings(pe, PostingsEnum.NONE);
+                int doc;
+                while ((doc = pe.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    if ((liveDocs == null || liveDocs.get(doc)) && digests.getOrd(doc) >= 0
+                        && (dupof == null || dupof.getOrd(doc) < 0)) {
+                        canonical.putIfAbsent(digests.get(doc).utf8ToString(), term.utf8ToString());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether path has a live canonical document of digest in reader.
+     */
+    static boolean isCanonical(IndexReader reader, String path, String digest) throws IOException {
+        BytesRef target = new BytesRef(path);
+        for (LeafReaderContext ctx : reader.leaves()) {
+            LeafReader leaf = ctx.reader();
+            Terms terms = leaf.terms("path");
+            SortedDocValues digests = leaf.getSortedDocValues(DIGEST);
+            if (terms == null || digests == null) {
+                continue;
+            }
+            TermsEnum te = terms.iterator();
+            if (!te.seekExact(target)) {
+                continue;
+            }
+            SortedDocValues dupof = leaf.getSortedDocValues(DUPOF);
+            Bits liveDocs = leaf.getLiveDocs();
+            PostingsEnum pe = te.postings(null, PostingsEnum.NONE);
+            int doc;
+            while ((doc = pe.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                if ((liveDocs == null || liveDocs.get(doc))
+                    && (dupof == null || dupof.getOrd(doc) < 0)
+                    && digests.getOrd(doc) >= 0
+                    && digests.get(doc).utf8ToString().equals(digest)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Aliases in reader whose canonical document is gone, or has other
+     * content by now, by path.
+     */
+    static List<Alias> orphans(IndexReader reader) throws IOException {
+        List<Alias> orphans = new ArrayList<Alias>();
+        // canonical path and digest -> still good
+        Map<String, Boolean> checked = new HashMap<String, Boolean>();
+        for (LeafReaderContext ctx : reader.leaves()) {
+            LeafReader leaf = ctx.reader();
+            Terms terms = leaf.terms(DUPOF);
+            SortedDocValues digests = leaf.getSortedDocValues(DIGEST);
+            if (terms == null || digests == null) {
+                continue;
+            }
+            NumericDocValues modified = leaf.getNumericDocValues("modified");
+            NumericDocValues size = leaf.getNumericDocValues("size");
+            Bits liveDocs = leaf.getLiveDocs();
+            TermsEnum te = terms.iterator();
+            PostingsEnum pe = null;
+            BytesRef term;
+            while ((term = te.next()) != null) {
+                String canonical = term.utf8ToString();
+                pe = te.postings(pe, PostingsEnum.NONE);
+                int doc;
+                while ((doc = pe.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    String digest = digests.get(doc).utf8ToString();
+                    String key = canonical + '\0' + digest;
+                    Boolean good = checked.get(key);
+                    if (good == null) {
+                        good = isCanonical(reader, canonical, digest);
+                        checked.put(key, good);
+                    }
+                    if (!good) {
+                        orphans.add(new Alias(leaf.document(doc).get("path"),
+                                              modified.get(doc), size.get(doc),
+                                              digest, canonical));
+                    }
+                }
+            }
+        }
+        Collections.sort(orphans, BY_PATH);
+        return orphans;
+    }
+
+    /** Whether document docId of reader is an alias. */
+    static boolean isAlias(IndexReader reader, int docId) {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext ctx = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        try {
+            SortedDocValues dupof = ctx.reader().getSortedDocValues(DUPOF);
+            return dupof != null && dupof.getOrd(docId - ctx.docBase) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** The live aliases of the canonical document docId of path, by path. */
+    static List<Alias> aliasesOf(IndexReader reader, int docId, String path) throws IOException {
+        List<Alias> aliases = new ArrayList<Alias>();
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext own = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        SortedDocValues ownDigests = own.reader().getSortedDocValues(DIGEST);
+        if (ownDigests == null || ownDigests.getOrd(docId - own.docBase) < 0) {
+            // from before duplicates were looked for
+            return aliases;
+        }
+        String digest = ownDigests.get(docId - own.docBase).utf8ToString();
+        BytesRef target = new BytesRef(path);
+        for (LeafReaderContext ctx : leaves) {
+            LeafReader leaf = ctx.reader();
+            Terms terms = leaf.terms(DUPOF);
+            if (terms == null) {
+                continue;
+            }
+            TermsEnum te = terms.iterator();
+            if (!te.seekExact(target)) {
+                continue;
+            }
+            SortedDocValues digests = leaf.getSortedDocValues(DIGEST);
+            NumericDocValues modified = leaf.getNumericDocValues("modified");
+            NumericDocValues size = leaf.getNumericDocValues("size");
+            Bits liveDocs = leaf.getLiveDocs();
+            PostingsEnum pe = te.postings(null, PostingsEnum.NONE);
+            int doc;
+            while ((doc = pe.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                // other content means an orphan the next commit repairs
+                if ((liveDocs == null || liveDocs.get(doc))
+                    && digests.get(doc).utf8ToString().equals(digest)) {
+                    aliases.add(new Alias(leaf.document(doc).get("path"),
+                                          modified.get(doc), size.get(doc), digest, path));
+                }
+            }
+        }
+        Collections.sort(aliases, BY_PATH);
+        return aliases;
+    }
+}
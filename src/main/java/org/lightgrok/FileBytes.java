@@ -0,0 +1,319 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads files as bytes, without InputStream/Reader layers in between.
+ *
+ * Large files are memory-mapped.  Smaller ones are read into a scratch
+ * array owned by the calling thread, so walking thousands of files does
+ * not allocate a new buffer for each; a buffer returned from here is only
+ * valid until the same thread reads the next file.  Callers hand it back
+ * with release() when done, which unmaps a mapped one, and turn the
+ * InternalError of a mapped file truncated meanwhile into an IOException
+ * with truncated().  Files too large for one buffer, MAX_SIZE, can't be
+ * read at all.
+ *
+ * The search helpers work on the raw UTF-8 bytes so only lines that
+ * actually match ever get decoded into Strings.
+ */
+public final class FileBytes {
+    static final int MAP_THRESHOLD = 1 << 20;
+    /** The most a ByteBuffer, and so a mapping, can hold. */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private static final ThreadLocal<byte[]> sScratch = new ThreadLocal<byte[]>();
+
+    /** Frees the memory of a mapped buffer. */
+    interface Unmapper {
+        void unmap(ByteBuffer buffer) throws Exception;
+    }
+
+    // null where neither way works, the buffers are left to the GC then
+    private static final Unmapper sUnmapper = unmapper();
+
+    private static final byte[] LOWER = new byte[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            LOWER[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    private FileBytes() {}
+
+    /** The whole file, from position 0 to limit. */
+    public static ByteBuffer read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_SIZE) {
+                throw new IOException(file + " is too large to read, " + size + " bytes");
+            }
+            if (size >= MAP_THRESHOLD) {
+                // stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(scratch((int) size + 1));
+            // One byte of slack tells a file that grew since size() apart.
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Done with a buffer from read(Path).  A mapped one is unmapped right
+     * away instead of whenever it gets collected, which may take long in
+     * -watch and -serve processes; it must not be touched afterwards.
+     */
+    public static void release(ByteBuffer buffer) {
+        if (!(buffer instanceof MappedByteBuffer) || sUnmapper == null) {
+            return;
+        }
+        try {
+            sUnmapper.unmap(buffer);
+        } catch (Exception ignore) {
+            // left to the GC
+        }
+    }
+
+    /**
+     * Reading a mapped file that was truncated meanwhile raises SIGBUS,
+     * which the JVM throws as an InternalError.  It's the same as a file
+     * that can't be read.
+     */
+    public static IOException truncated(Object file, InternalError e) {
+        return new IOException(file + " was truncated while it was read", e);
+    }
+
+    static Unmapper unmapper() {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return new Unmapper() {
+                @Override
+                public void unmap(ByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Exception e) {
+            // Java 8, below
+        }
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = cleaner.getReturnType().getMethod("clean");
+            return new Unmapper() {
+                @Override
+                public void unmap(ByteBuffer buffer) throws Exception {
+                    clean.invoke(cleaner.invoke(buffer));
+                }
+            };
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** length bytes at position, into the scratch array. */
+    public static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(scratch(length), 0, length);
+        while (buffer.hasRemaining()
+               && channel.read(buffer, position + buffer.position()) != -1) {
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static byte[] scratch(int size) {
+        byte[] scratch = sScratch.get();
+        if (scratch == null || scratch.length < size) {
+            scratch = new byte[Math.max(size, 64 * 1024)];
+            // mapped files don't need it, so this never grows past the threshold
+            if (scratch.length <= MAP_THRESHOLD + 1) {
+                sScratch.set(scratch);
+            }
+        }
+        return scratch;
+    }
+
+    public static String decode(ByteBuffer buffer, int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start,
+                              StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(start);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Decode everything between position and limit. */
+    public static String decode(ByteBuffer buffer) {
+        return decode(buffer, buffer.position(), buffer.limit());
+    }
+
+    /**
+     * Decode everything between position and limit as it is read, for
+     * buffers too large to turn into one String.  Malformed input is
+     * replaced the same way decode() does.
+     */
+    public static Reader reader(ByteBuffer buffer) {
+        return new InputStreamReader(new BufferInputStream(buffer.duplicate()),
+                                     StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A buffer as stream.  Read by an analyzer in the middle of
+     * IndexWriter.addDocument, a truncated file has to fail like any
+     * other unreadable input, as an IOException.
+     */
+    static final class BufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, mBuffer.remaining());
+            try {
+                mBuffer.get(bytes, offset, n);
+            } catch (InternalError e) {
+                throw truncated("mapped file", e);
+            }
+            return n;
+        }
+    }
+
+    /** Whether s is plain ASCII, the case the byte level search handles. */
+    public static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether the bytes between position and limit are all ASCII. */
+    public static boolean isAscii(ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The bytes of an ASCII buffer as chars, from index 0, so a regex
+     * can run over them without decoding the whole file first.
+     */
+    public static CharSequence asAscii(final ByteBuffer buffer) {
+        return new AsciiSequence(buffer, 0, buffer.limit());
+    }
+
+    static final class AsciiSequence implements CharSequence {
+        private final ByteBuffer mBuffer;
+        private final int mStart;
+        private final int mEnd;
+
+        AsciiSequence(ByteBuffer buffer, int start, int end) {
+            mBuffer = buffer;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public int length() {
+            return mEnd - mStart;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) mBuffer.get(mStart + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiSequence(mBuffer, mStart + start, mStart + end);
+        }
+
+        @Override
+        public String toString() {
+            return decode(mBuffer, mStart, mEnd);
+        }
+    }
+
+    /** ASCII bytes of s, lowercased; s has to pass isAscii. */
+    public static byte[] lowerAscii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = LOWER[s.charAt(i)];
+        }
+        return bytes;
+    }
+
+    /**
+     * First offset in [from, to) where the lowercased ASCII needle
+     * occurs, ignoring ASCII case, or -1.
+     */
+    public static int indexOfIgnoreAsciiCase(ByteBuffer haystack, int from, int to, byte[] needle) {
+        if (needle.length == 0) {
+            return from <= to ? from : -1;
+        }
+        byte first = needle[0];
+        int last = to - needle.length;
+        for (int i = from; i <= last; i++) {
+            if (LOWER[haystack.get(i) & 0xff] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < needle.length && LOWER[haystack.get(i + j) & 0xff] == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Offset of the next '\n' at or after from, or to if there is none. */
+    public static int endOfLine(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+}
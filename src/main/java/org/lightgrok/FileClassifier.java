@@ -0,0 +1,118 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether a file is text worth indexing, without asking the
+ * platform's mime database.
+ *
+ * Known extensions are answered from a table.  Anything else is
+ * sniffed once: a NUL byte in the first few KB means binary, and the
+ * verdict is remembered for every other file with that extension.
+ */
+public class FileClassifier {
+    static final int SNIFF_BYTES = 4096;
+
+    static final Set<String> TEXT_EXTENSIONS = new HashSet<String>(Arrays.asList(
+        "c", "h", "cc", "cpp", "cxx", "c++", "hh", "hpp", "hxx", "inl", "ipp",
+        "m", "mm", "java", "kt", "kts", "scala", "groovy", "gradle", "aidl",
+        "cs", "go", "rs", "swift", "d", "zig",
+        "js", "jsx", "mjs", "ts", "tsx", "coffee", "vue",
+        "py", "pyi", "rb", "pl", "pm", "php", "lua", "tcl", "r",
+        "sh", "bash", "zsh", "fish", "bat", "cmd", "ps1",
+        "el", "lisp", "clj", "scm", "hs", "ml", "mli", "erl", "ex", "exs",
+        "html", "htm", "xhtml", "css", "scss", "less", "xml", "xsl", "svg",
+        "json", "yaml", "yml", "toml", "ini", "cfg", "conf", "properties",
+        "txt", "md", "markdown", "rst", "org", "tex", "csv", "tsv",
+        "sql", "proto", "idl", "mojom", "thrift", "fbs", "gn", "gni",
+        "gyp", "gypi", "mk", "cmake", "bzl", "bazel", "ninja", "s", "asm",
+        "patch", "diff", "in", "am", "ac", "def", "plist", "pro"));
+
+    static final Set<String> BINARY_EXTENSIONS = new HashSet<String>(Arrays.asList(
+        "o", "obj", "a", "lib", "so", "dylib", "dll", "exe", "bin", "class",
+        "jar", "war", "apk", "aar", "dex", "odex", "oat", "pyc", "pyo",
+        "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "tar", "lz4", "zst",
+        "png", "jpg", "jpeg", "gif", "bmp", "ico", "webp", "tif", "tiff",
+        "mp3", "mp4", "ogg", "wav", "webm", "avi", "mov", "flac",
+        "ttf", "otf", "woff", "woff2", "eot", "pdf", "psd",
+        "pak", "dat", "db", "sqlite", "idx", "pack", "keystore", "jks"));
+
+    // extension -> verdict of the first sniffed file with it
+    private final ConcurrentHashMap<String, Boolean> mSniffed =
+        new ConcurrentHashMap<String, Boolean>();
+
+    public boolean isText(Path file) throws IOException {
+        String extension = extensionOf(file);
+        if (extension == null) {
+            // Makefile, README, scripts: nothing to cache on.
+            return !looksBinary(file);
+        }
+        if (TEXT_EXTENSIONS.contains(extension)) {
+            return true;
+        }
+        if (BINARY_EXTENSIONS.contains(extension)) {
+            return false;
+        }
+        Boolean verdict = mSniffed.get(extension);
+        if (verdict == null) {
+            verdict = !looksBinary(file);
+            mSniffed.putIfAbsent(extension, verdict);
+        }
+        return verdict;
+    }
+
+    /** Lowercased extension, or null if the name has none. */
+    static String extensionOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0 || dot == name.length() - 1) {
+            return null;
+        }
+        return name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    static boolean looksBinary(Path file) throws IOException {
+        byte[] head = new byte[SNIFF_BYTES];
+        int n = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (n < head.length && (read = in.read(head, n, head.length - n)) != -1) {
+                n += read;
+            }
+        }
+        return hasNul(head, n);
+    }
+
+    /**
+     * The check run on content that was already read, so a binary file
+     * with a text extension never reaches the analyzer.
+     */
+    public static boolean hasNul(ByteBuffer content) {
+        int end = Math.min(content.limit(), SNIFF_BYTES);
+        for (int i = 0; i < end; i++) {
+            if (content.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean hasNul(byte[] bytes, int length) {
+        int end = Math.min(length, SNIFF_BYTES);
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
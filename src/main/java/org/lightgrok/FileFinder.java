@@ -0,0 +1,212 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Finds files by name for -file: "RenderBlock.cpp", "rblock" or
+ * "core/rendering/blk" all find core/rendering/RenderBlock.cpp.
+ *
+ * There is no structure dedicated to names: every query is a linear
+ * scan of the whole path terms dictionary, segment by segment, so its
+ * cost grows with the number of indexed files.  That dictionary already
+ * is a sorted, prefix-compressed table of every path, which is why no
+ * other is kept.  A path has to contain the query's characters in order, ignoring case;
+ * that is checked on the raw term bytes, so most paths are rejected
+ * without ever becoming a String.  The rest are scored and the best
+ * limit kept:
+ *
+ *   the query in the file name  >  the query in the path  >  a subsequence
+ *
+ * with prefixes, whole names, component and camelCase boundaries, runs
+ * of consecutive characters and short paths ranked first.
+ */
+public class FileFinder {
+    static final int DEFAULT_LIMIT = 100;
+
+    static final int IN_NAME = 3000;
+    static final int IN_PATH = 2000;
+    static final int SUBSEQUENCE = 1000;
+
+    static final class Match {
+        final String path;
+        final int score;
+
+        Match(String path, int score) {
+            this.path = path;
+            this.score = score;
+        }
+    }
+
+    // best first, then shorter paths, then by path for a stable order
+    static final Comparator<Match> RANKING = new Comparator<Match>() {
+            @Override
+            public int compare(Match a, Match b) {
+                if (a.score != b.score) {
+                    return a.score > b.score ? -1 : 1;
+                }
+                if (a.path.length() != b.path.length()) {
+                    return a.path.length() - b.path.length();
+                }
+                return a.path.compareTo(b.path);
+            }
+        };
+
+    /** The best limit files of the index whose path below root matches query. */
+    static List<Match> find(IndexReader reader, String root, String query, int limit)
+        throws IOException {
+        String needle = query.toLowerCase(Locale.ROOT);
+        byte[] ascii = FileBytes.isAscii(needle) ? needle.getBytes(StandardCharsets.US_ASCII) : null;
+        PriorityQueue<Match> best =
+            new PriorityQueue<Match>(limit + 1, Collections.reverseOrder(RANKING));
+        int skip = root.length();
+        int skipBytes = root.getBytes(StandardCharsets.UTF_8).length;
+
+        for (LeafReaderContext ctx : reader.leaves()) {
+            LeafReader leaf = ctx.reader();
+            Terms terms = leaf.terms("path");
+            if (terms == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.getLiveDocs();
+            TermsEnum te = terms.iterator();
+            PostingsEnum pe = null;
+            BytesRef term;
+            while ((term = te.next()) != null) {
+                if (ascii != null && !isSubsequence(ascii, term, skipBytes)) {
+                    continue;
+                }
+                String path = term.utf8ToString();
+                String relative = path.length() > skip ? path.substring(skip) : path;
+                int score = score(needle, relative);
+                if (score < 0) {
+                    continue;
+                }
+                if (best.size() >= limit
+                    && RANKING.compare(new Match(path, score), best.peek()) >= 0) {
+                    continue;
+                }
+                // Old copies of re-indexed files linger in their segment.
+                pe = te.postings(pe, PostingsEnum.NONE);
+                if (!isLive(pe, liveDocs)) {
+                    continue;
+                }
+                best.add(new Match(path, score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        List<Match> matches = new ArrayList<Match>(best);
+        Collections.sort(matches, RANKING);
+        return matches;
+    }
+
+    static boolean isLive(PostingsEnum pe, Bits liveDocs) throws IOException {
+        int doc;
+        while ((doc = pe.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            if (liveDocs == null || liveDocs.get(doc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether the lower case ASCII needle is a subsequence of term from offset on. */
+    static boolean isSubsequence(byte[] needle, BytesRef term, int offset) {
+        int n = 0;
+        int end = term.offset + term.length;
+        for (int i = term.offset + Math.min(offset, term.length); i < end && n < needle.length; i++) {
+            int b = term.bytes[i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b == needle[n]) {
+                n++;
+            }
+        }
+        return n == needle.length;
+    }
+
+    /** How well path matches the lower case needle, -1 if not at all. */
+    static int score(String needle, String path) {
+        if (needle.isEmpty()) {
+            return -1;
+        }
+        String lower = path.toLowerCase(Locale.ROOT);
+        int nameStart = lower.lastIndexOf('/') + 1;
+        String name = lower.substring(nameStart);
+
+        int at = name.indexOf(needle);
+        if (at >= 0) {
+            int score = IN_NAME - (name.length() - needle.length());
+            if (at == 0) {
+                score += 200;
+            }
+            int dot = name.lastIndexOf('.');
+            if (name.equals(needle) || (dot > 0 && name.substring(0, dot).equals(needle))) {
+                score += 400;
+            }
+            return score;
+        }
+        at = lower.indexOf(needle);
+        if (at >= 0) {
+            return IN_PATH - Math.min(lower.length(), 500) + (isBoundary(path, at) ? 100 : 0);
+        }
+        return subsequenceScore(needle, path, lower);
+    }
+
+    /**
+     * Match needle right to left, so its end lands as far towards the
+     * file name as possible, and score what that match looks like.
+     */
+    static int subsequenceScore(String needle, String path, String lower) {
+        int score = SUBSEQUENCE - Math.min(lower.length(), 500);
+        int n = needle.length() - 1;
+        int previous = -1;
+        for (int i = lower.length() - 1; i >= 0 && n >= 0; i--) {
+            if (lower.charAt(i) != needle.charAt(n)) {
+                continue;
+            }
+            if (isBoundary(path, i)) {
+                score += 30;
+            }
+            if (previous == i + 1) {
+                score += 20;
+            } else if (previous >= 0) {
+                score -= Math.min(previous - i - 1, 15);
+            }
+            previous = i;
+            n--;
+        }
+        // never above a plain substring of the path
+        return n < 0 ? Math.min(score, IN_PATH - 501) : -1;
+    }
+
+    /** Whether a word starts at i: after a separator, or camelCase. */
+    static boolean isBoundary(String path, int i) {
+        if (i == 0) {
+            return true;
+        }
+        char before = path.charAt(i - 1);
+        char c = path.charAt(i);
+        return before == '/' || before == '_' || before == '-' || before == '.' || before == ' '
+            || (Character.isLowerCase(before) && Character.isUpperCase(c));
+    }
+}
@@ -0,0 +1,305 @@
+package org.lightgrok;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the git work tree a root is in looked like: the HEAD commit and
+ * the blob id of every file in the git index, read straight from .git
+ * without running git.
+ *
+ * Recorded in the index directory after a run, together with when the
+ * run started, what the ignore rules were and which directories it went
+ * into, so that the next -incremental run can take the files to look at
+ * from the git index instead of walking the tree, see
+ * Indexer.planFromGit.
+ *
+ * Only what a plain clone or worktree writes is read: index versions
+ * 2 to 4, loose and packed refs.  Split and sparse indexes give null,
+ * and the walk is used.
+ */
+public class GitState {
+    static final String FILE = "git-state";
+    static final int VERSION = 2;
+
+    // git file modes that aren't regular files
+    static final int MODE_TYPE = 0170000;
+    static final int MODE_FILE = 0100000;
+
+    private final String mHead;
+    // path below the root, '/'-separated -> blob id
+    private final Map<String, String> mBlobs;
+    // only known for recorded states
+    long mStarted = 0;
+    String mIgnoreKey = "";
+    Map<String, Indexer.Stamp> mIgnoreFiles = new HashMap<String, Indexer.Stamp>();
+    // directories the run went into, also those without indexed files
+    Set<String> mDirs = new HashSet<String>();
+
+    GitState(String head, Map<String, String> blobs) {
+        mHead = head;
+        mBlobs = blobs;
+    }
+
+    public String head() {
+        return mHead;
+    }
+
+    /** Blob ids of the regular files below the root, by '/'-separated relative path. */
+    public Map<String, String> blobs() {
+        return mBlobs;
+    }
+
+    /**
+     * The state of the work tree root is in, null if it isn't in one or
+     * its git index can't be read.
+     */
+    public static GitState read(Path root) throws IOException {
+        Path top = root.toAbsolutePath().normalize();
+        while (top != null && !Files.exists(top.resolve(".git"))) {
+            top = top.getParent();
+        }
+        if (top == null) {
+            return null;
+        }
+        Path gitDir = gitDir(top);
+        if (gitDir == null) {
+            return null;
+        }
+        String prefix = IgnoreFilter.relativize(top, root.toAbsolutePath().normalize());
+        if (!prefix.isEmpty()) {
+            prefix += "/";
+        }
+        Map<String, String> blobs = readIndex(gitDir.resolve("index"), prefix);
+        if (blobs == null) {
+            return null;
+        }
+        return new GitState(readHead(gitDir), blobs);
+    }
+
+    /** .git itself, or where a "gitdir:" file of a worktree or submodule points. */
+    static Path gitDir(Path top) throws IOException {
+        Path git = top.resolve(".git");
+        if (Files.isDirectory(git)) {
+            return git;
+        }
+        String content = new String(Files.readAllBytes(git), StandardCharsets.UTF_8).trim();
+        if (!content.startsWith("gitdir:")) {
+            return null;
+        }
+        return top.resolve(content.substring("gitdir:".length()).trim()).normalize();
+    }
+
+    /** The commit HEAD is at, "" on an unborn branch. */
+    static String readHead(Path gitDir) throws IOException {
+        String head = new String(Files.readAllBytes(gitDir.resolve("HEAD")),
+                                 StandardCharsets.UTF_8).trim();
+        // a linked worktree keeps its refs in the main repository
+        Path common = gitDir;
+        Path commondir = gitDir.resolve("commondir");
+        if (Files.isRegularFile(commondir)) {
+            common = gitDir.resolve(new String(Files.readAllBytes(commondir),
+                                               StandardCharsets.UTF_8).trim()).normalize();
+        }
+        for (int depth = 0; head.startsWith("ref:") && depth < 5; depth++) {
+            String ref = head.substring("ref:".length()).trim();
+            head = resolveRef(gitDir, common, ref);
+        }
+        return head.startsWith("ref:") ? "" : head;
+    }
+
+    static String resolveRef(Path gitDir, Path common, String ref) throws IOException {
+        for (Path dir : new Path[] { gitDir, common }) {
+            Path loose = dir.resolve(ref);
+            if (Files.isRegularFile(loose)) {
+                return new String(Files.readAllBytes(loose), StandardCharsets.UTF_8).trim();
+            }
+        }
+        Path packed = common.resolve("packed-refs");
+        if (Files.isRegularFile(packed)) {
+            for (String line : Files.readAllLines(packed, StandardCharsets.UTF_8)) {
+                if (line.endsWith(" " + ref) && !line.startsWith("#") && !line.startsWith("^")) {
+                    return line.substring(0, line.indexOf(' '));
+                }
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Blob ids of the regular files of a git index ("DIRC") below prefix,
+     * null if it's missing or in a form that isn't supported.
+     */
+    static Map<String, String> readIndex(Path indexFile, String prefix) throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        if (in.remaining() < 12 || in.getInt() != 0x44495243) {
+            return null;
+        }
+        int version = in.getInt();
+        if (version < 2 || version > 4) {
+            return null;
+        }
+        int count = in.getInt();
+        Map<String, String> blobs = new HashMap<String, String>(count * 2);
+        byte[] previous = new byte[0];
+        StringBuilder sha = new StringBuilder(40);
+        for (int i = 0; i < count; i++) {
+            int start = in.position();
+            // ctime, mtime, dev, ino
+            in.position(start + 24);
+            int mode = in.getInt();
+            // uid, gid, size
+            in.position(in.position() + 12);
+            sha.setLength(0);
+            for (int b = 0; b < 20; b++) {
+                int v = in.get() & 0xff;
+                sha.append(Character.forDigit(v >> 4, 16)).append(Character.forDigit(v & 0xf, 16));
+            }
+            int flags = in.getShort() & 0xffff;
+            if (version >= 3 && (flags & 0x4000) != 0) {
+                // extended flags: skip-worktree, intent-to-add
+                in.getShort();
+            }
+            byte[] path;
+            if (version == 4) {
+                // the path shares all but some bytes of the previous one
+                int strip = (int) readVarint(in);
+                int end = in.position();
+                while (in.get(end) != 0) {
+                    end++;
+                }
+                int keep = previous.length - strip;
+                path = new byte[keep + end - in.position()];
+                System.arraycopy(previous, 0, path, 0, keep);
+                in.get(path, keep, end - in.position());
+                in.get();
+            } else {
+                int end = in.position();
+                while (in.get(end) != 0) {
+                    end++;
+                }
+                path = new byte[end - in.position()];
+                in.get(path);
+                // NUL padded to a multiple of 8 bytes
+                in.position(start + ((end - start + 8) & ~7));
+            }
+            previous = path;
+            if ((mode & MODE_TYPE) != MODE_FILE) {
+                // symlinks, submodules and the directories of a sparse index
+                if ((mode & MODE_TYPE) == 0040000) {
+                    return null;
+                }
+                continue;
+            }
+            String name = new String(path, StandardCharsets.UTF_8);
+            if (name.startsWith(prefix)) {
+                blobs.put(name.substring(prefix.length()), sha.toString());
+            }
+        }
+        // Extensions follow; a split index has the rest of its entries elsewhere.
+        while (in.remaining() >= 20 + 8) {
+            byte[] signature = new byte[4];
+            in.get(signature);
+            int size = in.getInt();
+            if (new String(signature, StandardCharsets.US_ASCII).equals("link")) {
+                return null;
+            }
+            in.position(in.position() + size);
+        }
+        return blobs;
+    }
+
+    /** git's offset encoding of v4 path prefixes. */
+    static long readVarint(ByteBuffer in) {
+        int c = in.get() & 0xff;
+        long value = c & 127;
+        while ((c & 128) != 0) {
+            c = in.get() & 0xff;
+            value = ((value + 1) << 7) | (c & 127);
+        }
+        return value;
+    }
+
+    /** The state recorded in indexDir, null if there is none that can be read. */
+    public static GitState load(Path indexDir) {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(indexDir.resolve(FILE))))) {
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            String head = in.readUTF();
+            long started = in.readLong();
+            String ignoreKey = in.readUTF();
+            Map<String, Indexer.Stamp> ignoreFiles = new HashMap<String, Indexer.Stamp>();
+            for (int i = in.readInt(); i > 0; i--) {
+                ignoreFiles.put(in.readUTF(), new Indexer.Stamp(in.readLong(), in.readLong()));
+            }
+            Set<String> dirs = new HashSet<String>();
+            for (int i = in.readInt(); i > 0; i--) {
+                dirs.add(in.readUTF());
+            }
+            int count = in.readInt();
+            Map<String, String> blobs = new HashMap<String, String>(count * 2);
+            for (int i = 0; i < count; i++) {
+                blobs.put(in.readUTF(), in.readUTF());
+            }
+            GitState state = new GitState(head, blobs);
+            state.mStarted = started;
+            state.mIgnoreKey = ignoreKey;
+            state.mIgnoreFiles = ignoreFiles;
+            state.mDirs = dirs;
+            return state;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Record this state in indexDir, as of a run that started at started. */
+    public void save(Path indexDir, long started, String ignoreKey,
+                     Map<String, Indexer.Stamp> ignoreFiles, Set<String> dirs) throws IOException {
+        Path temp = Files.createTempFile(indexDir, FILE, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(VERSION);
+                out.writeUTF(mHead);
+                out.writeLong(started);
+                out.writeUTF(ignoreKey);
+                out.writeInt(ignoreFiles.size());
+                for (Map.Entry<String, Indexer.Stamp> file : ignoreFiles.entrySet()) {
+                    out.writeUTF(file.getKey());
+                    out.writeLong(file.getValue().modified);
+                    out.writeLong(file.getValue().size);
+                }
+                out.writeInt(dirs.size());
+                for (String dir : dirs) {
+                    out.writeUTF(dir);
+                }
+                out.writeInt(mBlobs.size());
+                for (Map.Entry<String, String> blob : mBlobs.entrySet()) {
+                    out.writeUTF(blob.getKey());
+                    out.writeUTF(blob.getValue());
+                }
+            }
+            Files.move(temp, indexDir.resolve(FILE), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which paths below a root are not indexed.
+ *
+ * Precedence, highest first: -ignore patterns from the command line,
+ * the .lgignore and .gitignore files of the directories from the path
+ * up to the root (deeper ones winning), and the built-in defaults.
+ *
+ * The walker asks about every directory before entering it, so an
+ * ignored tree is never listed at all.
+ */
+public class IgnoreFilter {
+    public static final String GITIGNORE = ".gitignore";
+    public static final String LGIGNORE = ".lgignore";
+
+    // What used to be hardcoded in Indexer.
+    static final List<String> DEFAULT_PATTERNS = Arrays.asList(
+        ".git/", ".svn/", ".tars/", "LayoutTests/", "PerformanceTests/",
+        "out/", "android-sdk-linux/", "**/ucbrowser/OUT/",
+        "*.jar", "*.apk", "*.tgz");
+
+    private final Path mRoot;
+    private final IgnoreRules mDefaults;
+    private final IgnoreRules mCommandLine;
+    // directory -> rules of its own ignore files, loaded on first use
+    private final ConcurrentHashMap<Path, IgnoreRules> mDirectoryRules =
+        new ConcurrentHashMap<Path, IgnoreRules>();
+
+    public static IgnoreFilter createFilterWithRoot(Path root, List<String> patterns) {
+        return new IgnoreFilter(root, IgnoreRules.compile(patterns));
+    }
+
+    private IgnoreFilter(Path root, IgnoreRules commandLine) {
+        mRoot = root;
+        mDefaults = IgnoreRules.compile(DEFAULT_PATTERNS);
+        mCommandLine = commandLine;
+    }
+
+    /**
+     * Whether path, whose parent directories are known not to be
+     * ignored, is.  This is the check the walker does.
+     */
+    public boolean isIgnored(Path path, boolean isDirectory) throws IOException {
+        if (path.equals(mRoot) || !path.startsWith(mRoot)) {
+            return false;
+        }
+        String relative = relativize(mRoot, path);
+        Boolean verdict = mCommandLine.match(relative, isDirectory);
+        if (verdict != null) {
+            return verdict;
+        }
+        for (Path dir = path.getParent(); dir != null && dir.startsWith(mRoot);
+             dir = dir.getParent()) {
+            IgnoreRules rules = rulesOf(dir);
+            if (!rules.isEmpty()) {
+                verdict = rules.match(relativize(dir, path), isDirectory);
+                if (verdict != null) {
+                    return verdict;
+                }
+            }
+        }
+        verdict = mDefaults.match(relative, isDirectory);
+        return verdict != null && verdict;
+    }
+
+    /**
+     * Whether path is ignored itself or lies in an ignored directory,
+     * for paths that did not come from a walk.
+     */
+    public boolean isIgnoredAnywhere(Path path, boolean isDirectory) throws IOException {
+        if (!path.startsWith(mRoot)) {
+            return true;
+        }
+        for (Path dir = path.getParent(); dir != null && !dir.equals(mRoot)
+                 && dir.startsWith(mRoot); dir = dir.getParent()) {
+            if (isIgnored(dir, true)) {
+                return true;
+            }
+        }
+        return isIgnored(path, isDirectory);
+    }
+
+    /** Drop what was loaded for dir once the walk has left it. */
+    public void forget(Path dir) {
+        mDirectoryRules.remove(dir);
+    }
+
+    IgnoreRules rulesOf(Path dir) throws IOException {
+        IgnoreRules rules = mDirectoryRules.get(dir);
+        if (rules == null) {
+            // .lgignore comes last so it can override .gitignore.
+            rules = IgnoreRules.concat(IgnoreRules.load(dir.resolve(GITIGNORE)),
+                                       IgnoreRules.load(dir.resolve(LGIGNORE)));
+            mDirectoryRules.put(dir, rules);
+        }
+        return rules;
+    }
+
+    static String relativize(Path base, Path path) {
+        String relative = base.relativize(path).toString();
+        return path.getFileSystem().getSeparator().equals("/")
+            ? relative : relative.replace(path.getFileSystem().getSeparator(), "/");
+    }
+}
@@ -0,0 +1,203 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of one ignore file (or command line), in .gitignore syntax,
+ * compiled once.
+ *
+ * All rules are also joined into one alternation per kind of entry so a
+ * path that matches none of them, the common case, costs a single regex
+ * match.  Only when negated rules exist and something matched are the
+ * rules walked one by one, last match winning like git does.
+ */
+public class IgnoreRules {
+    public static final IgnoreRules EMPTY = new IgnoreRules(new ArrayList<Rule>());
+
+    static final class Rule {
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+
+        Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+        }
+    }
+
+    private final List<Rule> mRules;
+    private final boolean mHasNegation;
+    private final Pattern mAnyFile;
+    private final Pattern mAnyDirectory;
+
+    private IgnoreRules(List<Rule> rules) {
+        mRules = rules;
+        boolean negation = false;
+        StringBuilder files = new StringBuilder();
+        StringBuilder dirs = new StringBuilder();
+        for (Rule rule : rules) {
+            negation |= rule.negated;
+            if (!rule.directoryOnly) {
+                append(files, rule.pattern);
+            }
+            append(dirs, rule.pattern);
+        }
+        mHasNegation = negation;
+        mAnyFile = files.length() == 0 ? null : Pattern.compile(files.toString());
+        mAnyDirectory = dirs.length() == 0 ? null : Pattern.compile(dirs.toString());
+    }
+
+    private static void append(StringBuilder any, Pattern pattern) {
+        if (any.length() > 0) {
+            any.append('|');
+        }
+        any.append("(?:").append(pattern.pattern()).append(')');
+    }
+
+    public static IgnoreRules compile(List<String> lines) {
+        List<Rule> rules = new ArrayList<Rule>();
+        for (String line : lines) {
+            Rule rule = parse(line);
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+        return rules.isEmpty() ? EMPTY : new IgnoreRules(rules);
+    }
+
+    /** Rules of an ignore file, or EMPTY if there is none. */
+    public static IgnoreRules load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return EMPTY;
+        }
+        return compile(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /** Both sets of rules, those of last taking precedence. */
+    public static IgnoreRules concat(IgnoreRules first, IgnoreRules last) {
+        if (first.mRules.isEmpty()) {
+            return last;
+        }
+        if (last.mRules.isEmpty()) {
+            return first;
+        }
+        List<Rule> rules = new ArrayList<Rule>(first.mRules);
+        rules.addAll(last.mRules);
+        return new IgnoreRules(rules);
+    }
+
+    public boolean isEmpty() {
+        return mRules.isEmpty();
+    }
+
+    /**
+     * TRUE if relativePath ('/' separated, relative to the directory
+     * holding the rules) is ignored, FALSE if a negated rule explicitly
+     * keeps it, null if no rule says anything.
+     */
+    public Boolean match(String relativePath, boolean isDirectory) {
+        Pattern any = isDirectory ? mAnyDirectory : mAnyFile;
+        if (any == null || !any.matcher(relativePath).matches()) {
+            return null;
+        }
+        if (!mHasNegation) {
+            return Boolean.TRUE;
+        }
+        for (int i = mRules.size() - 1; i >= 0; i--) {
+            Rule rule = mRules.get(i);
+            if (rule.directoryOnly && !isDirectory) {
+                continue;
+            }
+            if (rule.pattern.matcher(relativePath).matches()) {
+                return !rule.negated;
+            }
+        }
+        return null;
+    }
+
+    static Rule parse(String line) {
+        // Trailing spaces are ignored unless escaped.
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' '
+               && !(end > 1 && line.charAt(end - 2) == '\\')) {
+            end--;
+        }
+        String glob = line.substring(0, end);
+        if (glob.isEmpty() || glob.startsWith("#")) {
+            return null;
+        }
+        boolean negated = false;
+        if (glob.startsWith("!")) {
+            negated = true;
+            glob = glob.substring(1);
+        } else if (glob.startsWith("\\!") || glob.startsWith("\\#")) {
+            glob = glob.substring(1);
+        }
+        boolean directoryOnly = false;
+        if (glob.endsWith("/")) {
+            directoryOnly = true;
+            glob = glob.substring(0, glob.length() - 1);
+        }
+        if (glob.isEmpty()) {
+            return null;
+        }
+        // A slash anywhere but at the end anchors the rule to its
+        // directory, otherwise it matches a name at any depth.
+        boolean anchored = glob.indexOf('/') != -1;
+        if (glob.startsWith("/")) {
+            glob = glob.substring(1);
+        }
+        String regex = (anchored ? "" : "(?:.*/)?") + globToRegex(glob);
+        return new Rule(Pattern.compile(regex), negated, directoryOnly);
+    }
+
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int n = glob.length();
+        for (int i = 0; i < n; i++) {
+            char c = glob.charAt(i);
+            boolean segmentStart = i == 0 || glob.charAt(i - 1) == '/';
+            if (c == '*' && i + 1 < n && glob.charAt(i + 1) == '*') {
+                if (segmentStart && i + 2 < n && glob.charAt(i + 2) == '/') {
+                    // "**/": any number of leading directories
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else {
+                    // "/**" at the end: everything inside
+                    regex.append(".*");
+                    i += 1;
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[') {
+                int close = glob.indexOf(']', i + 2);
+                if (close == -1) {
+                    regex.append("\\[");
+                    continue;
+                }
+                String set = glob.substring(i + 1, close);
+                if (set.startsWith("!")) {
+                    set = "^" + set.substring(1);
+                }
+                regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                i = close;
+            } else if (c == '\\' && i + 1 < n) {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            } else if ("\\.^$+{}()|".indexOf(c) != -1) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,213 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * How the index of a root is laid out on disk, and the writers of its
+ * shards while it is being built.
+ *
+ * A root has a single index right in its index directory, as always,
+ * unless it was indexed with -shards N: then shard-0 ... shard-N-1 below
+ * it each hold an index of their own.  A file goes to the shard picked
+ * by a hash of the top-level entry of the root it is in, so a subtree
+ * always stays in one shard, and a shard can be rebuilt without touching
+ * the others.  Every shard gets its own IndexWriter, so their flushes
+ * and merges run side by side.  Searches open all shards as one
+ * MultiReader.
+ */
+public class IndexShards {
+    static final String SHARD_PREFIX = "shard-";
+
+    private final Path mRoot;
+    // null for shards that aren't being written
+    private final IndexWriter[] mWriters;
+
+    IndexShards(Path root, IndexWriter[] writers) {
+        mRoot = root;
+        mWriters = writers;
+    }
+
+    /** Number of shards of the index in indexDir, 1 if it isn't sharded or doesn't exist. */
+    public static int countShards(Path indexDir) throws IOException {
+        if (!Files.isDirectory(indexDir)) {
+            return 1;
+        }
+        int count = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(indexDir, SHARD_PREFIX + "*")) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry)) {
+                    count++;
+                }
+            }
+        }
+        return Math.max(count, 1);
+    }
+
+    /** Index directories of all count shards. */
+    public static List<Path> directories(Path indexDir, int count) {
+        List<Path> dirs = new ArrayList<Path>();
+        if (count == 1) {
+            dirs.add(indexDir);
+            return dirs;
+        }
+        for (int i = 0; i < count; i++) {
+            dirs.add(indexDir.resolve(SHARD_PREFIX + i));
+        }
+        return dirs;
+    }
+
+    public static List<Path> directories(Path indexDir) throws IOException {
+        return directories(indexDir, countShards(indexDir));
+    }
+
+    /** The shard of file, one of count, below root. */
+    public static int shardOf(Path root, Path file, int count) {
+        if (count == 1 || !file.startsWith(root) || file.equals(root)) {
+            return 0;
+        }
+        // String.hashCode is fixed by the spec, so this is stable.
+        String top = root.relativize(file).getName(0).toString();
+        return (top.hashCode() & Integer.MAX_VALUE) % count;
+    }
+
+    /** All shards of the index in indexDir as one reader. */
+    public static IndexReader openReader(Path indexDir) throws IOException {
+        List<Path> dirs = directories(indexDir);
+        if (dirs.size() == 1) {
+            return DirectoryReader.open(FSDirectory.open(dirs.get(0)));
+        }
+        IndexReader[] readers = new IndexReader[dirs.size()];
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = DirectoryReader.open(FSDirectory.open(dirs.get(i)));
+            }
+        } catch (IOException e) {
+            for (IndexReader reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            throw e;
+        }
+        return new MultiReader(readers, true);
+    }
+
+    /**
+     * Remove the index in indexDir, whatever its layout, before it is
+     * rebuilt with another number of shards.
+     */
+    static void clear(Path indexDir) throws IOException {
+        if (!Files.isDirectory(indexDir)) {
+            return;
+        }
+        Files.walkFileTree(indexDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                    throws IOException {
+                    if (!dir.equals(indexDir)) {
+                        Files.delete(dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+    public int count() {
+        return mWriters.length;
+    }
+
+    /** The writer of shard, null if it isn't open. */
+    public IndexWriter writer(int shard) {
+        return mWriters[shard];
+    }
+
+    public IndexWriter writerFor(Path file) {
+        return mWriters[shardOf(mRoot, file, mWriters.length)];
+    }
+
+    /** Delete matching documents from every open shard. */
+    public void deleteDocuments(Query... queries) throws IOException {
+        for (IndexWriter writer : mWriters) {
+            if (writer != null) {
+                writer.deleteDocuments(queries);
+            }
+        }
+    }
+
+    public void commit() throws IOException {
+        for (IndexWriter writer : mWriters) {
+            if (writer != null) {
+                writer.commit();
+            }
+        }
+    }
+
+    public boolean isOpen() {
+        for (IndexWriter writer : mWriters) {
+            if (writer != null && writer.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close all writers at once: closing flushes what is still buffered,
+     * which is a good part of the work of a build.
+     */
+    public void close() throws IOException {
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        List<Thread> closers = new ArrayList<Thread>();
+        for (final IndexWriter writer : mWriters) {
+            if (writer == null) {
+                continue;
+            }
+            Thread closer = new Thread("close " + writer.getDirectory()) {
+                    @Override
+                    public void run() {
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                };
+            closer.start();
+            closers.add(closer);
+        }
+        for (Thread closer : closers) {
+            try {
+                closer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while closing shards", e);
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+
+/**
+ * Keeps the index of a root live: after an incremental index run, every
+ * directory is watched and changed paths are written to a long-lived
+ * IndexWriter per shard.
+ *
+ * Events are coalesced per path until the tree has been quiet for
+ * DEBOUNCE_MILLIS, so a save that touches a file three times or a branch
+ * switch that touches thousands becomes one batch of updates.  Batches
+ * are committed at most every COMMIT_INTERVAL_MILLIS; a searcher, or the
+ * -serve daemon refreshing before each query, sees them after that.
+ */
+public class IndexWatcher {
+    static final long DEBOUNCE_MILLIS = 200;
+    // A steady stream of events still gets applied this often.
+    static final long MAX_BATCH_DELAY_MILLIS = 2000;
+    static final long COMMIT_INTERVAL_MILLIS = 1000;
+
+    private final Path mRoot;
+    private final Indexer mIndexer;
+    private WatchService mWatchService = null;
+    private IndexShards mShards = null;
+    private final Map<WatchKey, Path> mKeys = new HashMap<WatchKey, Path>();
+    private final Set<Path> mWatched = new HashSet<Path>();
+    // changed paths of the batch being collected, in event order
+    private final Set<Path> mChanged = new LinkedHashSet<Path>();
+    private boolean mOverflow = false;
+    private boolean mDirty = false;
+    // Set by close(), e.g. from the shutdown hook; apply and commit run
+    // under the same lock so the shards aren't closed under them.
+    private boolean mClosed = false;
+    private long mLastCommit = 0;
+    private Logger mLogger = Logger.getLogger("lightgrok");
+
+    public static IndexWatcher createWatcherWithRoot(String root) {
+        IndexWatcher n = new IndexWatcher(root);
+        n.mLogger.setLevel(Level.ERROR);
+        return n;
+    }
+
+    private IndexWatcher(String root) {
+        mRoot = Paths.get(root);
+        mIndexer = Indexer.createIndexerWithRoot(root);
+        mIndexer.setIncremental(true);
+    }
+
+    /** Same as Indexer.setIgnorePatterns. */
+    public void setIgnorePatterns(List<String> patterns) {
+        mIndexer.setIgnorePatterns(patterns);
+    }
+
+    /** Same as Indexer.setShards, for the initial index run. */
+    public void setShards(int shards) {
+        mIndexer.setShards(shards);
+    }
+
+    /** Threads of the initial index run and of new directories. */
+    public void setThreads(int threads) {
+        mIndexer.setThreads(threads);
+    }
+
+    /** Index, then keep the index up to date until the process is killed. */
+    public void doWatch() throws IOException {
+        mWatchService = FileSystems.getDefault().newWatchService();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+        try {
+            start();
+            while (true) {
+                if (!collect()) {
+                    break;
+                }
+                apply();
+                if (mDirty && System.currentTimeMillis() - mLastCommit >= COMMIT_INTERVAL_MILLIS) {
+                    commit();
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Catch up with the disk and start watching.  Directories are
+     * registered before the index run so nothing changed during it is
+     * missed; at worst a file gets indexed twice.
+     */
+    void start() throws IOException {
+        registerAll(mRoot);
+        mIndexer.doIndex();
+        IndexShards shards = mIndexer.openShards(OpenMode.CREATE_OR_APPEND);
+        synchronized (this) {
+            if (mClosed) {
+                shards.close();
+                return;
+            }
+            mShards = shards;
+        }
+        mLastCommit = System.currentTimeMillis();
+        mLogger.info("watching " + mKeys.size() + " directories under " + mRoot);
+    }
+
+    /**
+     * Wait for events and collect them until the tree is quiet, the
+     * batch is old enough or a pending commit is due.  False once the
+     * watch service was closed.
+     */
+    boolean collect() throws IOException {
+        long batchStart = 0;
+        while (true) {
+            WatchKey key;
+            try {
+                if (mChanged.isEmpty() && !mOverflow) {
+                    if (mDirty) {
+                        long wait = mLastCommit + COMMIT_INTERVAL_MILLIS - System.currentTimeMillis();
+                        key = mWatchService.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                        if (key == null) {
+                            return true;
+                        }
+                    } else {
+                        key = mWatchService.take();
+                    }
+                    batchStart = System.currentTimeMillis();
+                } else {
+                    key = mWatchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key == null
+                        || System.currentTimeMillis() - batchStart >= MAX_BATCH_DELAY_MILLIS) {
+                        if (key != null) {
+                            take(key);
+                        }
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ClosedWatchServiceException e) {
+                return false;
+            }
+            take(key);
+        }
+    }
+
+    private void take(WatchKey key) {
+        Path dir = mKeys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                mOverflow = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            String name = path.getFileName().toString();
+            if (name.equals(IgnoreFilter.GITIGNORE) || name.equals(IgnoreFilter.LGIGNORE)) {
+                // Picked up for paths seen from now on; what they newly
+                // hide or reveal waits for the next full run.
+                mIndexer.ignoreFilter().forget(dir);
+            }
+            mChanged.add(path);
+        }
+        if (!key.reset()) {
+            // the directory is gone, its parent reports the deletion
+            mWatched.remove(mKeys.remove(key));
+        }
+    }
+
+    /** Write the collected batch to the index. */
+    synchronized void apply() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        if (mOverflow) {
+            // Events were lost, only a walk can tell what changed.
+            mLogger.info("event overflow, re-indexing " + mRoot);
+            mOverflow = false;
+            mChanged.clear();
+            mShards.close();
+            registerAll(mRoot);
+            mIndexer.doIndex();
+            mShards = mIndexer.openShards(OpenMode.CREATE_OR_APPEND);
+            mLastCommit = System.currentTimeMillis();
+            return;
+        }
+        if (mChanged.isEmpty()) {
+            return;
+        }
+        mLogger.info("updating " + mChanged.size() + " changed paths");
+        for (Path path : mChanged) {
+            if (Files.isDirectory(path)) {
+                if (mWatched.contains(path)
+                    || mIndexer.ignoreFilter().isIgnoredAnywhere(path, true)) {
+                    // its files report their own changes
+                    continue;
+                }
+                // new, or moved in: none of it was seen yet
+                registerAll(path);
+            }
+            mIndexer.updateFile(mShards, path);
+        }
+        mChanged.clear();
+        mDirty = true;
+    }
+
+    synchronized void commit() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mIndexer.repairDuplicates(mShards);
+        mShards.commit();
+        mDirty = false;
+        mLastCommit = System.currentTimeMillis();
+        mLogger.info("committed");
+    }
+
+    /** Watch dir and every directory below it that isn't ignored. */
+    void registerAll(Path dir) throws IOException {
+        final IgnoreFilter filter = mIndexer.ignoreFilter();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs)
+                    throws IOException {
+                    if (filter.isIgnored(d, true)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    try {
+                        WatchKey key = d.register(mWatchService,
+                                                  StandardWatchEventKinds.ENTRY_CREATE,
+                                                  StandardWatchEventKinds.ENTRY_DELETE,
+                                                  StandardWatchEventKinds.ENTRY_MODIFY);
+                        mKeys.put(key, d);
+                        mWatched.add(d);
+                    } catch (IOException e) {
+                        // e.g. out of inotify watches; the rest still works
+                        mLogger.info("can't watch " + d + ": " + e.getMessage());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+    synchronized void close() {
+        mClosed = true;
+        try {
+            if (mShards != null && mShards.isOpen()) {
+                mShards.close();
+            }
+            mWatchService.close();
+        } catch (IOException e) {
+            mLogger.info("closing failed: " + e.getMessage());
+        }
+    }
+}
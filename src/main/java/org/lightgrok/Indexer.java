@@ -1,10 +1,9 @@
 package org.lightgrok;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -13,29 +12,141 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.spi.FileTypeDetector;
 import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.Level;
 import org.apache.lucene.analysis.Analyzer;
 //import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.core.SimpleAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.document.LongField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 
 public class Indexer {
     private String mRoot = null;
+    private boolean mIncremental = false;
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private final FileClassifier mClassifier = new FileClassifier();
+    private List<String> mIgnorePatterns = new ArrayList<String>();
+    private IgnoreFilter mIgnoreFilter = null;
+    private int mShards = 0;
+    private int mShardCount = 1;
+    private int mOnlyShard = -1;
+    private Stats mStats = Stats.DISABLED;
+    private Duplicates mDuplicates = null;
     private Logger mLogger = Logger.getLogger("lightgrok");
 
+    // path -> stamp of what is already in the index, only filled in
+    // incremental mode.  Entries are removed as the walk sees the file
+    // again, so whatever is left afterwards has been deleted on disk.
+    private Map<String, Stamp> mIndexed = null;
+    // stamps of the .gitignore and .lgignore files the walk saw, see GitState
+    private Map<String, Stamp> mIgnoreFiles = new ConcurrentHashMap<String, Stamp>();
+    // directories the walk went into, indexed files or not, see GitState
+    private Set<String> mWalkedDirs = ConcurrentHashMap.newKeySet();
+
+    /** What we remember about an indexed file to tell if it changed. */
+    static final class Stamp {
+        final long modified;
+        final long size;
+
+        Stamp(long modified, long size) {
+            this.modified = modified;
+            this.size = size;
+        }
+
+        boolean matches(long modified, long size) {
+            return this.modified == modified && this.size == size;
+        }
+
+        boolean matches(Stamp other) {
+            return matches(other.modified, other.size);
+        }
+
+        /** The stamp of path now, -1s if it is gone. */
+        static Stamp of(String path) {
+            try {
+                BasicFileAttributes attrs =
+                    Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+                return new Stamp(attrs.lastModifiedTime().toMillis(), attrs.size());
+            } catch (IOException e) {
+                return new Stamp(-1, -1);
+            }
+        }
+    }
+
+    /** Where the workers of indexFiles get their files from. */
+    interface FileSource {
+        void produce(BlockingQueue<FileTask> queue) throws IOException;
+    }
+
+    /** What an -incremental run in a git work tree has to look at, see planFromGit. */
+    static final class Plan {
+        final List<FileTask> files = new ArrayList<FileTask>();
+        // new directories, walked as a whole
+        final List<Path> dirs = new ArrayList<Path>();
+    }
+
+    // directory mtimes are coarse on some file systems
+    static final long MTIME_SLACK_MILLIS = 2000;
+
+    /** A file the walker found and a worker still has to read. */
+    static final class FileTask {
+        // handed to every worker once the walk is over
+        static final FileTask END = new FileTask(null, 0, 0);
+
+        final Path file;
+        final long modified;
+        final long size;
+
+        FileTask(Path file, long modified, long size) {
+            this.file = file;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
     public static Indexer createIndexerWithRoot(String root) {
         Indexer n = new Indexer();
         n.mRoot = root;
@@ -45,43 +156,153 @@ public class Indexer {
     }
     private Indexer() {}
 
+    static final FieldType CONTENTS_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+    static {
+        CONTENTS_TYPE.setStoreTermVectors(true);
+        CONTENTS_TYPE.setStoreTermVectorOffsets(true);
+        CONTENTS_TYPE.freeze();
+    }
+
+    // Only ever used to intersect postings, so no freqs, positions or norms.
+    static final FieldType TRIGRAMS_TYPE = new FieldType();
+    static {
+        TRIGRAMS_TYPE.setIndexOptions(IndexOptions.DOCS);
+        TRIGRAMS_TYPE.setTokenized(true);
+        TRIGRAMS_TYPE.setOmitNorms(true);
+        TRIGRAMS_TYPE.freeze();
+    }
+
+    static Analyzer createAnalyzer() {
+        //Analyzer analyzer = new StandardAnalyzer();
+        return new PerFieldAnalyzerWrapper(
+            new CodeAnalyzer(),
+            Collections.<String, Analyzer>singletonMap(TrigramAnalyzer.FIELD,
+                                                       new TrigramAnalyzer()));
+    }
+
+    /**
+     * Update an existing index in place instead of rebuilding it: only
+     * files whose mtime or size changed are re-read, and documents of
+     * files that disappeared are deleted.
+     */
+    public void setIncremental(boolean incremental) {
+        mIncremental = incremental;
+    }
+
+    /**
+     * Extra patterns in .gitignore syntax, relative to the root; they
+     * override the .gitignore and .lgignore files found in the tree.
+     */
+    public void setIgnorePatterns(List<String> patterns) {
+        mIgnorePatterns = patterns;
+        mIgnoreFilter = null;
+    }
+
+    /** Number of worker threads reading and analyzing files. */
+    public void setThreads(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Split the index into this many shards, see IndexShards; 0 keeps
+     * the layout of the existing index.  Changing it rebuilds everything.
+     */
+    public void setShards(int shards) {
+        mShards = Math.max(0, shards);
+    }
+
+    /** Only rebuild this shard of an index that is already sharded. */
+    public void setOnlyShard(int shard) {
+        mOnlyShard = shard;
+    }
+
+    /** Where the stages of indexing are timed, nowhere by default. */
+    public void setStats(Stats stats) {
+        mStats = stats;
+    }
+
     public void doIndex() {
         Date start = new Date();
         try {
-            Path indexDir = PathProvider.rootIndexDirectory();
+            Path indexDir = PathProvider.indexDirectory(mRoot);
             final Path docDir = Paths.get(mRoot);
 
-            indexDir = Paths.get(indexDir.toString(),
-                                 PathProvider.hashSourcePath(docDir.toString()));
-
             //System.out.println("Indexing to directory '" + indexDir.toString() + "'...");
             mLogger.info("Indexing to directory '" + indexDir.toString() + "'...");
 
-            Directory dir = FSDirectory.open(indexDir);
-            //Analyzer analyzer = new StandardAnalyzer();
-            Analyzer analyzer = new SimpleAnalyzer();
-            IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+            int existing = IndexShards.countShards(indexDir);
+            mShardCount = mShards > 0 ? mShards : existing;
+            boolean relayout = mShardCount != existing;
+            if (relayout) {
+                mLogger.info("re-sharding from " + existing + " to " + mShardCount);
+                IndexShards.clear(indexDir);
+            }
+            if (mOnlyShard >= mShardCount || (mOnlyShard >= 0 && relayout)) {
+                throw new IOException("can't rebuild shard " + mOnlyShard + " of " + mShardCount);
+            }
+            PathProvider.writeRoot(indexDir, mRoot);
+            mDuplicates = new Duplicates(mShardCount);
+            mIgnoreFiles.clear();
+            mWalkedDirs.clear();
+            // read before anything else, what changes during the run is
+            // looked at again next time
+            GitState git = mOnlyShard < 0 ? readGitState(docDir) : null;
+            boolean appending = true;
 
-            boolean create = true;
+            List<Path> shardDirs = IndexShards.directories(indexDir, mShardCount);
+            IndexWriter[] writers = new IndexWriter[mShardCount];
+            for (int i = 0; i < mShardCount; i++) {
+                if (mOnlyShard >= 0 && i != mOnlyShard) {
+                    continue;
+                }
+                Directory dir = FSDirectory.open(shardDirs.get(i));
 
-            if (create) {
-                // Create a new index in the directory, removing any
-                // previously indexed documents:
-                iwc.setOpenMode(OpenMode.CREATE);
-            } else {
-                // Add new documents to an existing index:
-                iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
-            }
+                // Fall back to a full build when there is nothing to update yet.
+                boolean create = !mIncremental || !DirectoryReader.indexExists(dir);
+                appending &= !create;
 
-            // Optional: for better indexing performance, if you
-            // are indexing many documents, increase the RAM
-            // buffer.  But if you do this, increase the max heap
-            // size to the JVM (eg add -Xmx512m or -Xmx1g):
-            //
-            // iwc.setRAMBufferSizeMB(256.0);
+                OpenMode mode;
+                if (create) {
+                    // Create a new index in the directory, removing any
+                    // previously indexed documents:
+                    mode = OpenMode.CREATE;
+                } else {
+                    // Add new documents to an existing index:
+                    mode = OpenMode.CREATE_OR_APPEND;
+                    if (mIndexed == null) {
+                        mIndexed = new HashMap<String, Stamp>();
+                    }
+                    try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                        mIndexed.putAll(loadIndexed(reader));
+                        mDuplicates.load(i, reader);
+                    }
+                }
+                writers[i] = openWriter(dir, mode);
+            }
+            if (mIndexed != null) {
+                mLogger.info(mIndexed.size() + " files already indexed");
+            }
 
-            IndexWriter writer = new IndexWriter(dir, iwc);
-            indexDocs(writer, docDir);
+            IndexShards shards = new IndexShards(docDir, writers);
+            Plan plan = null;
+            if (git != null && appending && mIndexed != null) {
+                GitState recorded = GitState.load(indexDir);
+                if (recorded != null) {
+                    Stats.Timer walk = mStats.start(Stats.Stage.WALK);
+                    plan = planFromGit(docDir, git, recorded);
+                    walk.stop();
+                }
+            }
+            if (plan != null) {
+                indexPlanned(shards, plan);
+            } else {
+                indexDocs(shards, docDir);
+            }
+            if (mIndexed != null) {
+                deleteRemoved(shards);
+                mIndexed = null;
+            }
+            repairDuplicates(shards);
 
             // NOTE: if you want to maximize search performance,
             // you can optionally call forceMerge here.  This can be
@@ -91,7 +312,12 @@ public class Indexer {
             //
             // writer.forceMerge(1);
 
-            writer.close();
+            Stats.Timer commit = mStats.start(Stats.Stage.COMMIT);
+            shards.close();
+            commit.stop();
+            if (git != null) {
+                git.save(indexDir, start.getTime(), ignoreKey(), mIgnoreFiles, mWalkedDirs);
+            }
 
             Date end = new Date();
             // System.out.println(end.getTime() - start.getTime() + " total milliseconds");
@@ -100,109 +326,656 @@ public class Indexer {
         } catch (IOException e) {
             // System.out.println(" caught a " + e.getClass() +
             //                    "\n with message: " + e.getMessage());
-            mLogger.info(" caught a " + e.getClass() +
+            mLogger.error(" caught a " + e.getClass() +
                     "\n with message: " + e.getMessage());
         }
     }
 
+    /** Writers on every shard of the root's index, e.g. long-lived ones for IndexWatcher. */
+    IndexShards openShards(OpenMode mode) throws IOException {
+        List<Path> shardDirs = IndexShards.directories(PathProvider.indexDirectory(mRoot));
+        mShardCount = shardDirs.size();
+        mDuplicates = new Duplicates(mShardCount);
+        IndexWriter[] writers = new IndexWriter[mShardCount];
+        for (int i = 0; i < writers.length; i++) {
+            Directory dir = FSDirectory.open(shardDirs.get(i));
+            if (mode != OpenMode.CREATE && DirectoryReader.indexExists(dir)) {
+                try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                    mDuplicates.load(i, reader);
+                }
+            }
+            writers[i] = openWriter(dir, mode);
+        }
+        return new IndexShards(Paths.get(mRoot), writers);
+    }
+
+    IndexWriter openWriter(Directory dir, OpenMode mode) throws IOException {
+        IndexWriterConfig iwc = new IndexWriterConfig(mStats.timeAnalysis(createAnalyzer()));
+        iwc.setOpenMode(mode);
+
+        // A bigger RAM buffer means fewer, larger segment flushes
+        // while all workers add documents, but it has to fit into
+        // the heap next to the per-thread analysis state.  Shards
+        // share the budget.
+        iwc.setRAMBufferSizeMB(ramBufferSizeMB() / Math.max(1, mShardCount));
 
-    void indexDocs(final IndexWriter writer, Path path) throws IOException {
+        return new IndexWriter(dir, iwc);
+    }
+
+    /** Whether the walk has to look at path, when only one shard is rebuilt. */
+    boolean isInShard(Path path) {
+        Path root = Paths.get(mRoot);
+        return mOnlyShard < 0 || path.equals(root)
+            || IndexShards.shardOf(root, path, mShardCount) == mOnlyShard;
+    }
+
+    IgnoreFilter ignoreFilter() {
+        if (mIgnoreFilter == null) {
+            mIgnoreFilter = IgnoreFilter.createFilterWithRoot(Paths.get(mRoot), mIgnorePatterns);
+        }
+        return mIgnoreFilter;
+    }
+
+    static double ramBufferSizeMB() {
+        long maxHeapMB = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+        return Math.max(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB,
+                        Math.min(256.0, maxHeapMB / 4));
+    }
+
+    /**
+     * Walk the tree on the calling thread and hand every file that has
+     * to be (re-)indexed over a bounded queue to a pool of workers which
+     * read and add it to the thread-safe writer of its shard.
+     */
+    void indexDocs(final IndexShards shards, final Path path) throws IOException {
         if (Files.isDirectory(path)) {
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            indexFiles(shards, new FileSource() {
                     @Override
-                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        try {
-                            String fileType = Files.probeContentType(file);
-                            // System.out.println(file.toString() + ":" + fileType);
-                            mLogger.info(file.toString() + ":" + fileType);
-                            if (!fileType.startsWith("text/")) {
-                                return FileVisitResult.CONTINUE;
-                            }
-                            if (file.toString().indexOf(".git") != -1) {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                            if (file.toString().indexOf("LayoutTests") != -1) {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                            if (file.toString().indexOf("PerformanceTests") != -1) {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                            if (file.toString().indexOf("/.tars") != -1) {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                            if (file.toString().indexOf(".tgz") != -1) {
-                                return FileVisitResult.CONTINUE;
-                            }
-                            if (file.toString().indexOf("/.svn") != -1) {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                            if (file.toString().indexOf("/android-sdk-linux/") != -1) {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                            if (file.toString().indexOf("/out/") != -1) {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                            if (file.toString().indexOf("/ucbrowser/OUT") != -1) {
-                                return FileVisitResult.SKIP_SUBTREE;
-                            }
-                            if (file.toString().endsWith(".jar")) {
-                                return FileVisitResult.CONTINUE;
-                            }
-                            if (file.toString().endsWith(".apk")) {
-                                return FileVisitResult.CONTINUE;
-                            }
-                            indexDoc(writer, file, attrs.lastModifiedTime().toMillis());
-                        } catch (IOException ignore) {
-                            // don't index files that can't be read.
-                        }
-                        return FileVisitResult.CONTINUE;
+                    public void produce(BlockingQueue<FileTask> queue) throws IOException {
+                        walkFiles(path, queue);
                     }
                 });
         } else {
-            indexDoc(writer, path, Files.getLastModifiedTime(path).toMillis());
-        }
-    }
-
-  void indexDoc(IndexWriter writer, Path file, long lastModified) throws IOException {
-    try (InputStream stream = Files.newInputStream(file)) {
-      // make a new, empty document
-      Document doc = new Document();
-
-      // Add the path of the file as a field named "path".  Use a
-      // field that is indexed (i.e. searchable), but don't tokenize
-      // the field into separate words and don't index term frequency
-      // or positional information:
-      Field pathField = new StringField("path", file.toString(), Field.Store.YES);
-      doc.add(pathField);
-
-      // Add the last modified date of the file a field named "modified".
-      // Use a LongPoint that is indexed (i.e. efficiently filterable with
-      // PointRangeQuery).  This indexes to milli-second resolution, which
-      // is often too fine.  You could instead create a number based on
-      // year/month/day/hour/minutes/seconds, down the resolution you require.
-      // For example the long value 2011021714 would mean
-      // February 17, 2011, 2-3 PM.
-      doc.add(new LongField("modified", lastModified, Field.Store.NO));
-
-      // Add the contents of the file to a field named "contents".  Specify a Reader,
-      // so that the text of the file is tokenized and indexed, but not stored.
-      // Note that FileReader expects the file to be in UTF-8 encoding.
-      // If that's not the case searching for special characters will fail.
-      doc.add(new TextField("contents", new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))));
-
-      if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
-          // New index, so we just add the document (no old document can be there):
-          // System.out.println("adding " + file);
-          mLogger.info("adding " + file);
-          writer.addDocument(doc);
-      } else {
-          // Existing index (an old copy of this document may have been indexed) so
-          // we use updateDocument instead to replace the old one matching the exact
-          // path, if present:
-          // System.out.println("updating " + file);
-          mLogger.info("updating " + file);
-          writer.updateDocument(new Term("path", file.toString()), doc);
-      }
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            long size = Files.size(path);
+            if (!isUpToDate(path, lastModified, size)) {
+                indexDoc(shards.writerFor(path), path, lastModified, size);
+            }
+        }
+    }
+
+    void indexFiles(final IndexShards shards, FileSource source) throws IOException {
+        final BlockingQueue<FileTask> queue =
+            new ArrayBlockingQueue<FileTask>(mThreads * 64);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ExecutorService workers = Executors.newFixedThreadPool(mThreads);
+        for (int i = 0; i < mThreads; i++) {
+            workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWorker(shards, queue, failure);
+                    }
+                });
+        }
+        try {
+            source.produce(queue);
+        } finally {
+            try {
+                for (int i = 0; i < mThreads; i++) {
+                    queue.put(FileTask.END);
+                }
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while indexing");
+            }
+        }
+        if (failure.get() != null) {
+            throw new IOException("indexing failed", failure.get());
+        }
+    }
+
+    /** Index what planFromGit found, walking only directories that are new. */
+    void indexPlanned(IndexShards shards, final Plan plan) throws IOException {
+        indexFiles(shards, new FileSource() {
+                @Override
+                public void produce(BlockingQueue<FileTask> queue) throws IOException {
+                    try {
+                        for (FileTask task : plan.files) {
+                            queue.put(task);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while indexing");
+                    }
+                    for (Path dir : plan.dirs) {
+                        walkFiles(dir, queue);
+                    }
+                }
+            });
+    }
+
+    static GitState readGitState(Path root) {
+        try {
+            return GitState.read(root);
+        } catch (IOException e) {
+            // not a work tree git itself could read, walk as always
+            return null;
+        }
+    }
+
+    /** Everything but ignore files that decides what is indexed. */
+    String ignoreKey() {
+        List<String> patterns = new ArrayList<String>(IgnoreFilter.DEFAULT_PATTERNS);
+        patterns.addAll(mIgnorePatterns);
+        return String.join("\n", patterns);
+    }
+
+    static boolean isIgnoreFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.equals(IgnoreFilter.GITIGNORE) || name.equals(IgnoreFilter.LGIGNORE);
+    }
+
+    /**
+     * Find what changed since the recorded run without walking the tree:
+     * the files to look at are the ones the git index tracks and the ones
+     * indexed already.  A file is re-indexed if git has another blob for
+     * it than last time, or its stamp changed, which is all the stat-ing
+     * left, like `git status`.  New files git doesn't track are found by
+     * listing just the directories whose mtime moved since the recorded
+     * run started, out of the ones holding known files and the ones the
+     * recorded run went into, which may hold nothing indexed.  Null when
+     * ignore rules changed, which can hide or reveal anything, so only a
+     * walk will do.
+     */
+    Plan planFromGit(Path root, GitState git, GitState recorded) throws IOException {
+        if (!recorded.mIgnoreKey.equals(ignoreKey())) {
+            mLogger.info("git: ignore patterns changed, walking");
+            return null;
+        }
+        for (Map.Entry<String, Stamp> file : recorded.mIgnoreFiles.entrySet()) {
+            if (!Stamp.of(file.getKey()).matches(file.getValue())) {
+                mLogger.info("git: " + file.getKey() + " changed, walking");
+                return null;
+            }
+        }
+        Set<String> known = new HashSet<String>(mIndexed.keySet());
+        Set<String> forced = new HashSet<String>();
+        List<Path> fresh = new ArrayList<Path>();
+        for (Map.Entry<String, String> blob : git.blobs().entrySet()) {
+            Path file = root.resolve(blob.getKey());
+            String path = file.toString();
+            String before = recorded.blobs().get(blob.getKey());
+            boolean changed = !blob.getValue().equals(before);
+            if (changed && isIgnoreFile(file)) {
+                mLogger.info("git: " + path + " changed, walking");
+                return null;
+            }
+            known.add(path);
+            if (mIndexed.containsKey(path)) {
+                if (before != null && changed) {
+                    forced.add(path);
+                }
+            } else if (changed) {
+                // Tracked files that are still left out, ignored or
+                // binary, aren't looked at again until git has them change.
+                fresh.add(file);
+            }
+        }
+        Set<Path> dirs = new HashSet<Path>();
+        for (String path : known) {
+            for (Path dir = Paths.get(path).getParent(); dir != null && dir.startsWith(root)
+                     && dirs.add(dir); dir = dir.getParent()) {
+            }
+        }
+        for (String dir : recorded.mDirs) {
+            dirs.add(Paths.get(dir));
+        }
+
+        Plan plan = new Plan();
+        // Before any stamp is taken off mIndexed, as a new ignore file
+        // still means walking.
+        for (Path dir : dirs) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+            } catch (IOException e) {
+                continue;
+            }
+            if (!attrs.isDirectory()) {
+                continue;
+            }
+            mWalkedDirs.add(dir.toString());
+            if (attrs.lastModifiedTime().toMillis() < recorded.mStarted - MTIME_SLACK_MILLIS) {
+                continue;
+            }
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (known.contains(entry.toString()) || dirs.contains(entry)) {
+                        continue;
+                    }
+                    if (isIgnoreFile(entry)) {
+                        mLogger.info("git: new " + entry + ", walking");
+                        return null;
+                    }
+                    if (Files.isDirectory(entry)) {
+                        if (!ignoreFilter().isIgnoredAnywhere(entry, true)) {
+                            plan.dirs.add(entry);
+                        }
+                    } else {
+                        fresh.add(entry);
+                    }
+                }
+            }
+        }
+        for (Path file : fresh) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                continue;
+            }
+            if (attrs.isRegularFile() && !ignoreFilter().isIgnoredAnywhere(file, false)
+                && mClassifier.isText(file)) {
+                plan.files.add(new FileTask(file, attrs.lastModifiedTime().toMillis(), attrs.size()));
+            }
+        }
+        // What's left in mIndexed afterwards is gone and gets deleted.
+        for (String path : new ArrayList<String>(mIndexed.keySet())) {
+            Path file = Paths.get(path);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                continue;
+            }
+            if (!attrs.isRegularFile()) {
+                continue;
+            }
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            if (forced.contains(path)) {
+                mIndexed.remove(path);
+                plan.files.add(new FileTask(file, lastModified, attrs.size()));
+            } else if (!isUpToDate(file, lastModified, attrs.size())) {
+                plan.files.add(new FileTask(file, lastModified, attrs.size()));
+            }
+        }
+        mIgnoreFiles.putAll(recorded.mIgnoreFiles);
+        mLogger.info("git: HEAD " + recorded.head() + " -> " + git.head() + ", "
+                     + plan.files.size() + " files and " + plan.dirs.size()
+                     + " new directories to index");
+        return plan;
+    }
+
+    void walkFiles(Path root, final BlockingQueue<FileTask> queue) throws IOException {
+        // time spent detecting file types or waiting for the workers,
+        // which isn't walking
+        final long[] elsewhere = new long[1];
+        Stats.Timer walk = mStats.start(Stats.Stage.WALK);
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                    // Pruning here is what keeps the walk out of huge
+                    // ignored trees like out/.
+                    if (!isInShard(dir) || ignoreFilter().isIgnored(dir, true)) {
+                        mLogger.info("skipping " + dir);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    mWalkedDirs.add(dir.toString());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    ignoreFilter().forget(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // unreadable directories and files are left out
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    try {
+                        if (isIgnoreFile(file)) {
+                            mIgnoreFiles.put(file.toString(),
+                                             new Stamp(attrs.lastModifiedTime().toMillis(), attrs.size()));
+                        }
+                        if (!isInShard(file) || ignoreFilter().isIgnored(file, false)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        // Last, as it may have to read the head of the file.
+                        Stats.Timer detect = mStats.start(Stats.Stage.DETECT);
+                        boolean text = mClassifier.isText(file);
+                        elsewhere[0] += detect.stop();
+                        if (!text) {
+                            mLogger.info("skipping binary " + file);
+                            return FileVisitResult.CONTINUE;
+                        }
+                        long lastModified = attrs.lastModifiedTime().toMillis();
+                        if (isUpToDate(file, lastModified, attrs.size())) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        long waiting = System.nanoTime();
+                        queue.put(new FileTask(file, lastModified, attrs.size()));
+                        elsewhere[0] += System.nanoTime() - waiting;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while walking " + file);
+                    } catch (IOException ignore) {
+                        // don't index files that can't be read.
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        walk.stop(0, elsewhere[0]);
+    }
+
+    void runWorker(IndexShards shards, BlockingQueue<FileTask> queue,
+                   AtomicReference<Throwable> failure) {
+        while (true) {
+            FileTask task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task == FileTask.END) {
+                return;
+            }
+            // Keep draining after a failure so the walker never blocks
+            // on a full queue.
+            if (failure.get() != null) {
+                continue;
+            }
+            try {
+                indexDoc(shards.writerFor(task.file), task.file, task.modified, task.size);
+            } catch (IOException ignore) {
+                // don't index files that can't be read.
+            } catch (RuntimeException e) {
+                // one odd file doesn't cost the rest of the run
+                mLogger.error("can't index " + task.file, e);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+
+    /**
+     * Read path, modified and size of every live document.  Paths come
+     * from the terms dictionary and the stamps from doc values, so no
+     * stored field has to be loaded.
+     */
+    static Map<String, Stamp> loadIndexed(IndexReader reader) throws IOException {
+        Map<String, Stamp> indexed = new HashMap<String, Stamp>();
+        for (LeafReaderContext ctx : reader.leaves()) {
+            LeafReader leaf = ctx.reader();
+            Terms terms = leaf.terms("path");
+            NumericDocValues modified = leaf.getNumericDocValues("modified");
+            NumericDocValues size = leaf.getNumericDocValues("size");
+            if (terms == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.getLiveDocs();
+            TermsEnum te = terms.iterator();
+            PostingsEnum pe = null;
+            BytesRef term;
+            while ((term = te.next()) != null) {
+                pe = te.postings(pe, PostingsEnum.NONE);
+                int doc;
+                while ((doc = pe.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    // Documents from before stamps were kept get -1 and
+                    // so are always re-indexed once.
+                    indexed.put(term.utf8ToString(),
+                                new Stamp(modified == null ? -1 : modified.get(doc),
+                                          size == null ? -1 : size.get(doc)));
+                }
+            }
+        }
+        return indexed;
+    }
+
+    boolean isUpToDate(Path file, long lastModified, long size) {
+        if (mIndexed == null) {
+            return false;
+        }
+        Stamp stamp = mIndexed.remove(file.toString());
+        return stamp != null && stamp.matches(lastModified, size);
+    }
+
+    /**
+     * Bring the document of one file up to date with the disk: re-index
+     * it, or delete it if it's gone, ignored or binary.
+     */
+    void updateFile(IndexShards shards, Path file) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            deletePath(shards, file);
+            return;
+        }
+        if (attrs.isDirectory()) {
+            if (!ignoreFilter().isIgnoredAnywhere(file, true)) {
+                indexDocs(shards, file);
+            }
+            return;
+        }
+        if (!attrs.isRegularFile() || ignoreFilter().isIgnoredAnywhere(file, false)
+            || !mClassifier.isText(file)) {
+            deletePath(shards, file);
+            return;
+        }
+        try {
+            indexDoc(shards.writerFor(file), file, attrs.lastModifiedTime().toMillis(), attrs.size());
+        } catch (IOException e) {
+            // can't be read, or was truncated meanwhile; like the walk,
+            // leave it to its next change instead of failing the batch
+            mLogger.info("can't index " + file + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            mLogger.error("can't index " + file, e);
+        }
+    }
+
+    /** Delete the document of path, or of everything below it. */
+    void deletePath(IndexShards shards, Path path) throws IOException {
+        String name = path.toString();
+        shards.deleteDocuments(
+            new TermQuery(new Term("path", name)),
+            new PrefixQuery(new Term("path", name + path.getFileSystem().getSeparator())));
+    }
+
+    /**
+     * Point the aliases whose canonical file changed or went away at
+     * another copy of their content, or make the first of them the
+     * canonical one; before every commit, see Duplicates.
+     */
+    void repairDuplicates(IndexShards shards) throws IOException {
+        for (int i = 0; i < shards.count(); i++) {
+            IndexWriter writer = shards.writer(i);
+            if (writer == null) {
+                continue;
+            }
+            // made canonical here, which the reader can't see yet
+            Set<String> promoted = new HashSet<String>();
+            try (DirectoryReader reader = DirectoryReader.open(writer, true)) {
+                for (Duplicates.Alias alias : Duplicates.orphans(reader)) {
+                    String canonical = mDuplicates.canonical(i, alias.digest);
+                    if (canonical != null && !canonical.equals(alias.canonical)
+                        && (promoted.contains(canonical)
+                            || Duplicates.isCanonical(reader, canonical, alias.digest))) {
+                        writer.updateDocument(new Term("path", alias.path),
+                                              aliasDocument(alias.path, alias.modified, alias.size,
+                                                            alias.digest, canonical));
+                        continue;
+                    }
+                    mLogger.info("promoting " + alias.path);
+                    mDuplicates.setCanonical(i, alias.digest, alias.path);
+                    promoted.add(alias.path);
+                    writer.deleteDocuments(new Term("path", alias.path));
+                    try {
+                        indexDoc(writer, Paths.get(alias.path), alias.modified, alias.size);
+                    } catch (IOException e) {
+                        // gone meanwhile, the next walk has it deleted
+                    }
+                }
+            }
+        }
+    }
+
+    void deleteRemoved(IndexShards shards) throws IOException {
+        for (String path : mIndexed.keySet()) {
+            mLogger.info("deleting " + path);
+            shards.writerFor(Paths.get(path)).deleteDocuments(new Term("path", path));
+        }
+    }
+
+  void indexDoc(IndexWriter writer, Path file, long lastModified, long size) throws IOException {
+    // Read the file in one go: the text is needed for analysis and the
+    // raw bytes for the line table.
+    // Note that the file is expected to be in UTF-8 encoding.
+    // If that's not the case searching for special characters will fail.
+    Stats.Timer read = mStats.start(Stats.Stage.READ);
+    ByteBuffer bytes = FileBytes.read(file);
+    read.stop(bytes.remaining());
+    try {
+        indexBytes(writer, file, lastModified, size, bytes);
+    } catch (InternalError e) {
+        throw FileBytes.truncated(file, e);
+    } finally {
+        FileBytes.release(bytes);
+    }
+  }
+
+  void indexBytes(IndexWriter writer, Path file, long lastModified, long size, ByteBuffer bytes)
+      throws IOException {
+    if (FileClassifier.hasNul(bytes)) {
+        // binary content behind a text extension
+        if (writer.getConfig().getOpenMode() != OpenMode.CREATE) {
+            writer.deleteDocuments(new Term("path", file.toString()));
+        }
+        return;
+    }
+    Stats.Timer scan = mStats.start(Stats.Stage.SCAN);
+    String digest = Duplicates.digest(bytes);
+    String canonical = mDuplicates.canonicalFor(
+        IndexShards.shardOf(Paths.get(mRoot), file, mShardCount), digest, file.toString());
+    if (!canonical.equals(file.toString())) {
+        // another copy of the content is indexed already
+        Document alias = aliasDocument(file.toString(), lastModified, size, digest, canonical);
+        scan.stop(bytes.remaining());
+        Stats.Timer add = mStats.start(Stats.Stage.ADD);
+        writeDocument(writer, file, alias);
+        add.stop();
+        return;
+    }
+    // Large files are decoded as the analyzers read them, never into
+    // one String.
+    boolean large = bytes.remaining() >= FileBytes.MAP_THRESHOLD;
+    String text = large ? null : FileBytes.decode(bytes);
+
+    // make a new, empty document
+    Document doc = new Document();
+
+    // Add the path of the file as a field named "path".  Use a
+    // field that is indexed (i.e. searchable), but don't tokenize
+    // the field into separate words and don't index term frequency
+    // or positional information:
+    Field pathField = new StringField("path", file.toString(), Field.Store.YES);
+    doc.add(pathField);
+
+    // Add the last modified date of the file a field named "modified".
+    // Use a LongPoint that is indexed (i.e. efficiently filterable with
+    // PointRangeQuery).  This indexes to milli-second resolution, which
+    // is often too fine.  You could instead create a number based on
+    // year/month/day/hour/minutes/seconds, down the resolution you require.
+    // For example the long value 2011021714 would mean
+    // February 17, 2011, 2-3 PM.
+    addStamps(doc, lastModified, size);
+    doc.add(new SortedDocValuesField(Duplicates.DIGEST, new BytesRef(digest)));
+
+    // Add the contents of the file to a field named "contents", tokenized
+    // and indexed, but not stored.  Term vectors with offsets plus the
+    // line table let the searcher turn matching terms into line numbers
+    // without reading the whole file again.
+    if (large) {
+        doc.add(new Field("contents", FileBytes.reader(bytes), CONTENTS_TYPE));
+        doc.add(new StoredField("lines", LineTable.encode(FileBytes.reader(bytes), bytes)));
+        doc.add(new Field(TrigramAnalyzer.FIELD, FileBytes.reader(bytes), TRIGRAMS_TYPE));
+    } else {
+        doc.add(new Field("contents", text, CONTENTS_TYPE));
+        doc.add(new StoredField("lines", LineTable.encode(text, bytes)));
+        // Trigrams of the same text answer substring queries.
+        doc.add(new Field(TrigramAnalyzer.FIELD, text, TRIGRAMS_TYPE));
+    }
+    // Names of what the file defines, and where, so -def is answered
+    // from the index alone.
+    List<SymbolScanner.Symbol> symbols = large
+        ? SymbolScanner.scan(file, bytes) : SymbolScanner.scan(file, text);
+    for (SymbolScanner.Symbol symbol : symbols) {
+        doc.add(new StringField(SymbolScanner.FIELD, symbol.name, Field.Store.NO));
+    }
+    if (!symbols.isEmpty()) {
+        doc.add(new StoredField(SymbolScanner.STORED_FIELD, SymbolScanner.encode(symbols)));
+    }
+    scan.stop(bytes.remaining());
+
+    // Analysis happens inside addDocument, it's told apart by the time
+    // its token streams took.
+    long analyzed = Stats.analysisNanos();
+    Stats.Timer add = mStats.start(Stats.Stage.ADD);
+    writeDocument(writer, file, doc);
+    long analysis = Stats.analysisNanos() - analyzed;
+    add.stop(0, analysis);
+    if (mStats.isEnabled()) {
+        mStats.record(Stats.Stage.ANALYZE, bytes.remaining(), analysis, 0);
     }
   }
+
+    static void addStamps(Document doc, long lastModified, long size) {
+        doc.add(new LongField("modified", lastModified, Field.Store.NO));
+        // Doc values of mtime and size let an incremental run decide what
+        // changed without loading stored fields.
+        doc.add(new NumericDocValuesField("modified", lastModified));
+        doc.add(new LongField("size", size, Field.Store.NO));
+        doc.add(new NumericDocValuesField("size", size));
+    }
+
+    /** A copy of the content of canonical, see Duplicates. */
+    static Document aliasDocument(String path, long lastModified, long size,
+                                  String digest, String canonical) {
+        Document doc = new Document();
+        doc.add(new StringField("path", path, Field.Store.YES));
+        addStamps(doc, lastModified, size);
+        doc.add(new SortedDocValuesField(Duplicates.DIGEST, new BytesRef(digest)));
+        doc.add(new StringField(Duplicates.DUPOF, canonical, Field.Store.NO));
+        doc.add(new SortedDocValuesField(Duplicates.DUPOF, new BytesRef(canonical)));
+        return doc;
+    }
+
+    void writeDocument(IndexWriter writer, Path file, Document doc) throws IOException {
+        if (writer.getConfig().getOpenMode() == OpenMode.CREATE) {
+            // New index, so we just add the document (no old document can be there):
+            // System.out.println("adding " + file);
+            mLogger.info("adding " + file);
+            writer.addDocument(doc);
+        } else {
+            // Existing index (an old copy of this document may have been indexed) so
+            // we use updateDocument instead to replace the old one matching the exact
+            // path, if present:
+            // System.out.println("updating " + file);
+            mLogger.info("updating " + file);
+            writer.updateDocument(new Term("path", file.toString()), doc);
+        }
+    }
 }
@@ -0,0 +1,119 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Where every line of an indexed file starts, both as char offset into
+ * the decoded text (what analyzer offsets refer to) and as byte offset
+ * into the file (where to seek to read it back).
+ *
+ * Stored per document as delta-coded vInts; for pure ASCII files the
+ * two tables are identical and only one is written.
+ */
+public class LineTable {
+    private final int[] mCharStarts;
+    private final long[] mByteStarts;
+    private final long mByteLength;
+
+    private LineTable(int[] charStarts, long[] byteStarts, long byteLength) {
+        mCharStarts = charStarts;
+        mByteStarts = byteStarts;
+        mByteLength = byteLength;
+    }
+
+    /** Build the stored form for text, which was decoded from bytes. */
+    public static BytesRef encode(String text, ByteBuffer bytes) throws IOException {
+        return encode(new StringReader(text), bytes);
+    }
+
+    /** The same, with the text read from a Reader, see FileBytes.reader(). */
+    public static BytesRef encode(Reader text, ByteBuffer bytes) throws IOException {
+        int length = bytes.limit();
+        int lines = 1;
+        for (int i = 0; i < length; i++) {
+            if (bytes.get(i) == '\n') {
+                lines++;
+            }
+        }
+        // line starts in chars, known once all of text is read
+        int[] charStarts = new int[lines];
+        int line = 1;
+        int chars = 0;
+        char[] chunk = new char[8192];
+        for (int n; (n = text.read(chunk)) != -1; ) {
+            for (int i = 0; i < n; i++) {
+                if (chunk[i] == '\n') {
+                    charStarts[line++] = chars + i + 1;
+                }
+            }
+            chars += n;
+        }
+        boolean ascii = chars == length;
+
+        byte[] out = new byte[5 * 3 + 5 * lines * (ascii ? 1 : 2)];
+        ByteArrayDataOutput data = new ByteArrayDataOutput(out);
+        data.writeVInt(lines);
+        data.writeVLong(length);
+        data.writeByte((byte) (ascii ? 1 : 0));
+        for (int i = 1; i < lines; i++) {
+            data.writeVInt(charStarts[i] - charStarts[i - 1]);
+        }
+        if (!ascii) {
+            int last = 0;
+            for (int i = 0; i < length; i++) {
+                if (bytes.get(i) == '\n') {
+                    data.writeVInt(i + 1 - last);
+                    last = i + 1;
+                }
+            }
+        }
+        return new BytesRef(out, 0, data.getPosition());
+    }
+
+    public static LineTable decode(BytesRef stored) {
+        ByteArrayDataInput data = new ByteArrayDataInput(stored.bytes, stored.offset, stored.length);
+        int lines = data.readVInt();
+        long byteLength = data.readVLong();
+        boolean ascii = data.readByte() == 1;
+        int[] charStarts = new int[lines];
+        for (int i = 1; i < lines; i++) {
+            charStarts[i] = charStarts[i - 1] + data.readVInt();
+        }
+        long[] byteStarts = new long[lines];
+        for (int i = 1; i < lines; i++) {
+            byteStarts[i] = byteStarts[i - 1] + (ascii ? charStarts[i] - charStarts[i - 1] : data.readVInt());
+        }
+        return new LineTable(charStarts, byteStarts, byteLength);
+    }
+
+    public int lineCount() {
+        return mCharStarts.length;
+    }
+
+    /** Zero based line holding the char at offset. */
+    public int lineOf(int charOffset) {
+        int i = Arrays.binarySearch(mCharStarts, charOffset);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    public long byteStart(int line) {
+        return mByteStarts[line];
+    }
+
+    /** End of line, including its line terminator. */
+    public long byteEnd(int line) {
+        return line + 1 < mByteStarts.length ? mByteStarts[line + 1] : mByteLength;
+    }
+
+    public long byteLength() {
+        return mByteLength;
+    }
+}
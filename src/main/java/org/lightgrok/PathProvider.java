@@ -1,9 +1,14 @@
 package org.lightgrok;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -11,10 +16,59 @@ import com.google.common.hash.Hashing;
 
 
 public class PathProvider {
+    // names the source tree of an index, which its hashed name can't
+    static final String ROOT_FILE = "root";
+
     static boolean sStripRootLead = false;
+    // -Dlightgrok.index=dir keeps e.g. benchmark runs away from the real indexes
+    static Path sRootIndexDirectory =
+        Paths.get(System.getProperty("lightgrok.index", "/tmp/lightgrok/index"));
 
     public static Path rootIndexDirectory() {
-        return Paths.get("/tmp/lightgrok/index");
+        return sRootIndexDirectory;
+    }
+
+    public static void setRootIndexDirectory(Path dir) {
+        sRootIndexDirectory = dir;
+    }
+
+    /** Where the index of the source tree at root lives. */
+    public static Path indexDirectory(String root) {
+        return Paths.get(rootIndexDirectory().toString(),
+                         hashSourcePath(Paths.get(root).toString()));
+    }
+
+    /** Record which root the index in indexDir belongs to. */
+    static void writeRoot(Path indexDir, String root) throws IOException {
+        Files.createDirectories(indexDir);
+        Files.write(indexDir.resolve(ROOT_FILE),
+                    Paths.get(root).toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Every root with an index under rootIndexDirectory, sorted.  Indexes
+     * from before the root was recorded aren't found until re-indexed.
+     */
+    public static List<String> indexedRoots() throws IOException {
+        List<String> roots = new ArrayList<String>();
+        if (!Files.isDirectory(rootIndexDirectory())) {
+            return roots;
+        }
+        try (DirectoryStream<Path> indexDirs = Files.newDirectoryStream(rootIndexDirectory())) {
+            for (Path indexDir : indexDirs) {
+                Path rootFile = indexDir.resolve(ROOT_FILE);
+                if (!Files.isRegularFile(rootFile)) {
+                    continue;
+                }
+                String root = new String(Files.readAllBytes(rootFile), StandardCharsets.UTF_8);
+                // a copied or renamed index directory would search the wrong tree
+                if (indexDir.getFileName().toString().equals(hashSourcePath(root))) {
+                    roots.add(root);
+                }
+            }
+        }
+        Collections.sort(roots);
+        return roots;
     }
 
     public static Boolean getStripRootLead() {
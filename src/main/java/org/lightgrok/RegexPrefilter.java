@@ -0,0 +1,480 @@
+package org.lightgrok;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+
+/**
+ * Turns a java.util.regex pattern into a trigram query for documents
+ * that may match it, like codesearch does: the literals every match has
+ * to contain are worked out from the structure of the pattern and their
+ * trigrams looked up.
+ *
+ *   foo_(get|set)_\w+  ->  (foo_get_ OR foo_set_)  ->  trigrams of each
+ *
+ * For every piece of the pattern either the exact set of strings it
+ * matches is tracked, while that set is small, or an AND/OR tree of
+ * literals any match contains.  Whatever isn't understood matches
+ * anything, so the query only ever lets too many documents through,
+ * never too few; the pattern itself verifies the candidates.
+ */
+public class RegexPrefilter {
+    // Exact sets bigger than this are turned into a requirement.
+    static final int MAX_EXACT = 16;
+
+    /** An AND/OR tree of literals, ANY when nothing is required. */
+    static class Node {
+        static final Node ANY = new Node();
+    }
+
+    static final class Literal extends Node {
+        final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+    }
+
+    static final class Combination extends Node {
+        final boolean and;
+        final List<Node> children;
+
+        Combination(boolean and, List<Node> children) {
+            this.and = and;
+            this.children = children;
+        }
+    }
+
+    /** What one piece of a pattern matches. */
+    static final class Info {
+        // every string it can match, or null if unknown or too many
+        final Set<String> exact;
+        // otherwise what every match contains
+        final Node required;
+
+        Info(Set<String> exact, Node required) {
+            this.exact = exact;
+            this.required = required;
+        }
+
+        static Info exact(String... strings) {
+            Set<String> set = new LinkedHashSet<String>();
+            for (String s : strings) {
+                set.add(s);
+            }
+            return new Info(set, null);
+        }
+
+        static Info anything() {
+            return new Info(null, Node.ANY);
+        }
+
+        Node toNode() {
+            if (exact == null) {
+                return required;
+            }
+            List<Node> literals = new ArrayList<Node>();
+            for (String s : exact) {
+                if (s.length() < 3) {
+                    // no trigram to look for
+                    return Node.ANY;
+                }
+                literals.add(new Literal(s));
+            }
+            return or(literals);
+        }
+    }
+
+    static Node and(List<Node> children) {
+        List<Node> kept = new ArrayList<Node>();
+        for (Node child : children) {
+            if (child != Node.ANY) {
+                kept.add(child);
+            }
+        }
+        if (kept.isEmpty()) {
+            return Node.ANY;
+        }
+        return kept.size() == 1 ? kept.get(0) : new Combination(true, kept);
+    }
+
+    static Node or(List<Node> children) {
+        for (Node child : children) {
+            if (child == Node.ANY) {
+                return Node.ANY;
+            }
+        }
+        if (children.isEmpty()) {
+            return Node.ANY;
+        }
+        return children.size() == 1 ? children.get(0) : new Combination(false, children);
+    }
+
+    private final String mRegex;
+    private int mPos = 0;
+
+    private RegexPrefilter(String regex) {
+        mRegex = regex;
+    }
+
+    /**
+     * Query for documents which may contain a match of regex, which has
+     * to compile.  Matches all documents when no literal is required.
+     */
+    public static Query query(String regex) {
+        Query query = null;
+        // Free-spacing mode gives whitespace a different meaning.
+        if (!regex.matches("(?s).*\\(\\?[a-wyzA-Z-]*x.*")) {
+            try {
+                query = toQuery(parse(regex).toNode());
+            } catch (RuntimeException e) {
+                // something this parser doesn't know, go without
+                query = null;
+            }
+        }
+        return query == null ? new MatchAllDocsQuery() : query;
+    }
+
+    static Info parse(String regex) {
+        RegexPrefilter parser = new RegexPrefilter(regex);
+        Info info = parser.alternation();
+        if (parser.mPos != regex.length()) {
+            throw new IllegalArgumentException("unbalanced ) at " + parser.mPos);
+        }
+        return info;
+    }
+
+    /** null where nothing can be filtered on. */
+    static Query toQuery(Node node) {
+        if (node instanceof Literal) {
+            return TrigramAnalyzer.substringQuery(((Literal) node).text);
+        }
+        if (!(node instanceof Combination)) {
+            return null;
+        }
+        Combination combination = (Combination) node;
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        int clauses = 0;
+        for (Node child : combination.children) {
+            Query query = toQuery(child);
+            if (query == null) {
+                if (!combination.and) {
+                    // one branch could match anything
+                    return null;
+                }
+                continue;
+            }
+            builder.add(query, combination.and ? BooleanClause.Occur.FILTER
+                        : BooleanClause.Occur.SHOULD);
+            clauses++;
+        }
+        if (clauses == 0) {
+            return null;
+        }
+        return new ConstantScoreQuery(builder.build());
+    }
+
+    private boolean more() {
+        return mPos < mRegex.length();
+    }
+
+    private char peek() {
+        return mRegex.charAt(mPos);
+    }
+
+    private Info alternation() {
+        Info result = concatenation();
+        while (more() && peek() == '|') {
+            mPos++;
+            Info next = concatenation();
+            if (result.exact != null && next.exact != null
+                && result.exact.size() + next.exact.size() <= MAX_EXACT) {
+                Set<String> union = new LinkedHashSet<String>(result.exact);
+                union.addAll(next.exact);
+                result = new Info(union, null);
+            } else {
+                List<Node> branches = new ArrayList<Node>();
+                branches.add(result.toNode());
+                branches.add(next.toNode());
+                result = new Info(null, or(branches));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs of pieces with exact sets are multiplied out into longer
+     * literals; a piece without one, or a product growing too big, ends
+     * the run and the runs are ANDed.
+     */
+    private Info concatenation() {
+        List<Node> required = new ArrayList<Node>();
+        Set<String> run = Info.exact("").exact;
+        while (more() && peek() != '|' && peek() != ')') {
+            Info next = repetition();
+            if (next.exact != null && run.size() * next.exact.size() <= MAX_EXACT) {
+                Set<String> product = new LinkedHashSet<String>();
+                for (String x : run) {
+                    for (String y : next.exact) {
+                        product.add(x + y);
+                    }
+                }
+                run = product;
+                continue;
+            }
+            required.add(new Info(run, null).toNode());
+            if (next.exact != null) {
+                run = next.exact;
+            } else {
+                required.add(next.required);
+                run = Info.exact("").exact;
+            }
+        }
+        if (required.isEmpty()) {
+            return new Info(run, null);
+        }
+        required.add(new Info(run, null).toNode());
+        return new Info(null, and(required));
+    }
+
+    private Info repetition() {
+        Info atom = atom();
+        while (more()) {
+            char c = peek();
+            int min;
+            if (c == '*') {
+                mPos++;
+                min = 0;
+            } else if (c == '+') {
+                mPos++;
+                min = 1;
+            } else if (c == '?') {
+                mPos++;
+                if (atom.exact != null) {
+                    Set<String> optional = new LinkedHashSet<String>(atom.exact);
+                    optional.add("");
+                    atom = new Info(optional, null);
+                } else {
+                    atom = Info.anything();
+                }
+                skipQuantifierMode();
+                continue;
+            } else if (c == '{') {
+                int close = mRegex.indexOf('}', mPos);
+                String bounds = mRegex.substring(mPos + 1, close);
+                mPos = close + 1;
+                int comma = bounds.indexOf(',');
+                min = Integer.parseInt((comma == -1 ? bounds : bounds.substring(0, comma)).trim());
+            } else {
+                break;
+            }
+            skipQuantifierMode();
+            // x{n,} with n >= 1 still contains x once
+            atom = min == 0 ? Info.anything() : new Info(null, atom.toNode());
+        }
+        return atom;
+    }
+
+    /** The lazy '?' or possessive '+' after a quantifier. */
+    private void skipQuantifierMode() {
+        if (more() && (peek() == '?' || peek() == '+')) {
+            mPos++;
+        }
+    }
+
+    private Info atom() {
+        char c = mRegex.charAt(mPos++);
+        switch (c) {
+        case '(':
+            return group();
+        case '[':
+            return characterClass();
+        case '\\':
+            return escape();
+        case '.':
+            return Info.anything();
+        case '^':
+        case '$':
+            return Info.exact("");
+        default:
+            return Info.exact(String.valueOf(c));
+        }
+    }
+
+    private Info group() {
+        boolean lookaround = false;
+        if (mRegex.startsWith("?", mPos)) {
+            mPos++;
+            char kind = peek();
+            if (kind == '=' || kind == '!') {
+                lookaround = true;
+                mPos++;
+            } else if (kind == '<' && (mRegex.startsWith("<=", mPos) || mRegex.startsWith("<!", mPos))) {
+                lookaround = true;
+                mPos += 2;
+            } else if (kind == '<') {
+                // named group
+                mPos = mRegex.indexOf('>', mPos) + 1;
+            } else if (kind == ':' || kind == '>') {
+                mPos++;
+            } else {
+                // flags, "(?i)" on their own or "(?i:...)"
+                while (peek() != ')' && peek() != ':') {
+                    mPos++;
+                }
+                if (peek() == ')') {
+                    mPos++;
+                    return Info.exact("");
+                }
+                mPos++;
+            }
+        }
+        Info inner = alternation();
+        if (!more() || peek() != ')') {
+            throw new IllegalArgumentException("unclosed group");
+        }
+        mPos++;
+        return lookaround ? Info.exact("") : inner;
+    }
+
+    /** Small sets of plain chars like [gs] or [a-c] are exact, others anything. */
+    private Info characterClass() {
+        boolean simple = true;
+        if (more() && peek() == '^') {
+            simple = false;
+            mPos++;
+        }
+        Set<String> chars = new LinkedHashSet<String>();
+        int depth = 1;
+        boolean first = true;
+        while (depth > 0) {
+            char c = mRegex.charAt(mPos++);
+            if (c == ']' && !first) {
+                depth--;
+            } else if (c == '[') {
+                simple = false;
+                depth++;
+            } else if (c == '\\') {
+                char escaped = mRegex.charAt(mPos++);
+                if (Character.isLetterOrDigit(escaped)) {
+                    simple = false;
+                } else {
+                    chars.add(String.valueOf(escaped));
+                }
+            } else if (c == '&' && mRegex.startsWith("&", mPos)) {
+                simple = false;
+            } else if (c == '-' && !first && more() && peek() != ']' && !chars.isEmpty()) {
+                char from = lastChar(chars);
+                char to = mRegex.charAt(mPos++);
+                if (to == '\\' || to - from > MAX_EXACT) {
+                    simple = false;
+                } else {
+                    for (char r = from; r <= to; r++) {
+                        chars.add(String.valueOf(r));
+                    }
+                }
+            } else {
+                chars.add(String.valueOf(c));
+            }
+            first = false;
+        }
+        if (!simple || chars.size() > MAX_EXACT / 2) {
+            return Info.anything();
+        }
+        return new Info(chars, null);
+    }
+
+    private static char lastChar(Set<String> chars) {
+        String last = null;
+        for (String s : chars) {
+            last = s;
+        }
+        return last.charAt(0);
+    }
+
+    private Info escape() {
+        char c = mRegex.charAt(mPos++);
+        switch (c) {
+        case 'b': case 'B': case 'A': case 'z': case 'Z': case 'G':
+            return Info.exact("");
+        case 't':
+            return Info.exact("\t");
+        case 'n':
+            return Info.exact("\n");
+        case 'r':
+            return Info.exact("\r");
+        case 'f':
+            return Info.exact("\f");
+        case 'Q': {
+            int end = mRegex.indexOf("\\E", mPos);
+            String quoted = mRegex.substring(mPos, end == -1 ? mRegex.length() : end);
+            mPos = end == -1 ? mRegex.length() : end + 2;
+            return Info.exact(quoted);
+        }
+        case 'x':
+            if (peek() != '{') {
+                String hex = mRegex.substring(mPos, mPos + 2);
+                mPos += 2;
+                return Info.exact(String.valueOf((char) Integer.parseInt(hex, 16)));
+            }
+            mPos = mRegex.indexOf('}', mPos) + 1;
+            return Info.anything();
+        case 'u': {
+            String hex = mRegex.substring(mPos, mPos + 4);
+            mPos += 4;
+            return Info.exact(String.valueOf((char) Integer.parseInt(hex, 16)));
+        }
+        case 'p': case 'P':
+            if (peek() == '{') {
+                mPos = mRegex.indexOf('}', mPos) + 1;
+            } else {
+                mPos++;
+            }
+            return Info.anything();
+        case 'k':
+            mPos = mRegex.indexOf('>', mPos) + 1;
+            return Info.anything();
+        case 'c':
+            mPos++;
+            return Info.anything();
+        case '0': {
+            // octal: \0n, \0nn, or \0mnn with m up to 3
+            int end = mPos;
+            while (end < mRegex.length() && end - mPos < 3
+                   && mRegex.charAt(end) >= '0' && mRegex.charAt(end) <= '7') {
+                end++;
+            }
+            if (end - mPos == 3 && mRegex.charAt(mPos) > '3') {
+                end--;
+            }
+            if (end == mPos) {
+                return Info.anything();
+            }
+            char value = (char) Integer.parseInt(mRegex.substring(mPos, end), 8);
+            mPos = end;
+            return Info.exact(String.valueOf(value));
+        }
+        default:
+            if (c >= '1' && c <= '9') {
+                // a back reference; Java takes more digits while there
+                // are that many groups, none of them can be required
+                while (more() && Character.isDigit(peek())) {
+                    mPos++;
+                }
+                return Info.anything();
+            }
+            if (Character.isLetterOrDigit(c)) {
+                // \d \w \s and the like
+                return Info.anything();
+            }
+            return Info.exact(String.valueOf(c));
+        }
+    }
+}
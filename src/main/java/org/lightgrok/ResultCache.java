@@ -0,0 +1,214 @@
+package org.lightgrok;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.hash.Hashing;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Printed lines of earlier searches, kept next to the index so that an
+ * editor asking for the identifier at point again gets them back
+ * without a search, even from a new process.
+ *
+ * An entry is one file under results/ in the index directory, named by
+ * a hash of the search.  It is only good for the commit generations of
+ * the index it was made with, and while every file that was a candidate
+ * of the search, hit or not, still has the mtime and size it had: the
+ * search reads candidates from disk, nothing else.  Entries are evicted
+ * least recently used first, a hit touches its file.
+ */
+public class ResultCache {
+    static final String DIRECTORY = "results";
+    static final int VERSION = 1;
+    static final int MAX_ENTRIES = 512;
+    static final long MAX_BYTES = 32L * 1024 * 1024;
+
+    private final Path mDir;
+    private final String mGeneration;
+
+    /** A cache of the index in indexDir, as of its current commits. */
+    public static ResultCache createCacheWithIndex(Path indexDir) throws IOException {
+        return new ResultCache(indexDir.resolve(DIRECTORY), generation(indexDir));
+    }
+
+    private ResultCache(Path dir, String generation) {
+        mDir = dir;
+        mGeneration = generation;
+    }
+
+    /** The last commit generation of every shard, without opening a reader. */
+    static String generation(Path indexDir) throws IOException {
+        StringBuilder generation = new StringBuilder();
+        for (Path shard : IndexShards.directories(indexDir)) {
+            try (Directory dir = FSDirectory.open(shard)) {
+                if (generation.length() > 0) {
+                    generation.append(',');
+                }
+                generation.append(SegmentInfos.getLastCommitGeneration(dir));
+            }
+        }
+        return generation.toString();
+    }
+
+    Path entry(String key) {
+        return mDir.resolve(Hashing.sha1().hashString(key, StandardCharsets.UTF_8).toString());
+    }
+
+    /**
+     * Print the cached lines of key, at most maxCount unless it is 0.
+     * False if there is no entry that is still good.
+     */
+    public boolean replay(String key, PrintStream out, int maxCount) throws IOException {
+        List<String> lines = lookup(key);
+        if (lines == null) {
+            return false;
+        }
+        int printed = 0;
+        for (String line : lines) {
+            if (maxCount > 0 && printed >= maxCount) {
+                break;
+            }
+            out.println(line);
+            printed++;
+        }
+        out.flush();
+        return true;
+    }
+
+    List<String> lookup(String key) throws IOException {
+        Path file = entry(key);
+        List<String> lines;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != VERSION || !in.readUTF().equals(key)
+                || !in.readUTF().equals(mGeneration)) {
+                return null;
+            }
+            int candidates = in.readInt();
+            for (int i = 0; i < candidates; i++) {
+                if (!stamp(in.readUTF()).matches(in.readLong(), in.readLong())) {
+                    return null;
+                }
+            }
+            int count = in.readInt();
+            lines = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] line = new byte[in.readInt()];
+                in.readFully(line);
+                lines.add(new String(line, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            // none yet, or cut short by a full disk and overwritten later
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignore) {
+            // evicted by another process meanwhile
+        }
+        return lines;
+    }
+
+    /** The stamp of a candidate file now, -1s if it is gone. */
+    static Indexer.Stamp stamp(String path) {
+        return Indexer.Stamp.of(path);
+    }
+
+    /**
+     * Remember the lines printed for key; candidates has the stamps of
+     * the files that were read, taken before they were.
+     */
+    public void store(String key, List<String> lines, Map<String, Indexer.Stamp> candidates)
+        throws IOException {
+        Files.createDirectories(mDir);
+        Path file = entry(key);
+        // Written aside and moved in, so concurrent searches never see
+        // half an entry.
+        Path temp = Files.createTempFile(mDir, "entry", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(VERSION);
+                out.writeUTF(key);
+                out.writeUTF(mGeneration);
+                out.writeInt(candidates.size());
+                for (Map.Entry<String, Indexer.Stamp> candidate : candidates.entrySet()) {
+                    out.writeUTF(candidate.getKey());
+                    out.writeLong(candidate.getValue().modified);
+                    out.writeLong(candidate.getValue().size);
+                }
+                out.writeInt(lines.size());
+                for (String line : lines) {
+                    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        evict();
+    }
+
+    /** Drop the least recently used entries beyond MAX_ENTRIES or MAX_BYTES. */
+    void evict() throws IOException {
+        final List<Path> entries = new ArrayList<Path>();
+        final List<BasicFileAttributes> attrs = new ArrayList<BasicFileAttributes>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(mDir)) {
+            for (Path file : files) {
+                try {
+                    attrs.add(Files.readAttributes(file, BasicFileAttributes.class));
+                    entries.add(file);
+                } catch (IOException ignore) {
+                    // gone already
+                }
+            }
+        }
+        List<Integer> order = new ArrayList<Integer>();
+        long bytes = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            order.add(i);
+            bytes += attrs.get(i).size();
+        }
+        if (entries.size() <= MAX_ENTRIES && bytes <= MAX_BYTES) {
+            return;
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return attrs.get(a).lastModifiedTime().compareTo(attrs.get(b).lastModifiedTime());
+                }
+            });
+        int left = entries.size();
+        for (int i : order) {
+            if (left <= MAX_ENTRIES && bytes <= MAX_BYTES) {
+                break;
+            }
+            Files.deleteIfExists(entries.get(i));
+            bytes -= attrs.get(i).size();
+            left--;
+        }
+    }
+}
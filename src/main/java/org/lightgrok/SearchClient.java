@@ -0,0 +1,62 @@
+package org.lightgrok;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+
+/** Thin client forwarding a command line to a running SearchServer. */
+public class SearchClient {
+    private SearchClient() {}
+
+    /**
+     * Send args to the server on port and copy its answer to out.
+     * Returns false, without having written anything, when no server
+     * of this user is listening so the caller can do the work itself.
+     */
+    public static boolean forward(int port, String[] args, OutputStream out) throws IOException {
+        String token;
+        try {
+            token = new String(Files.readAllBytes(SearchServer.tokenFile(port)),
+                               StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (AccessDeniedException e) {
+            // another user's server
+            return false;
+        }
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (ConnectException e) {
+            return false;
+        }
+        try {
+            DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+            request.writeUTF(token);
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                out.flush();
+            }
+        } finally {
+            socket.close();
+        }
+        return true;
+    }
+}
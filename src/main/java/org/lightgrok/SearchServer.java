@@ -0,0 +1,188 @@
+package org.lightgrok;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.google.common.io.BaseEncoding;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.Level;
+
+/**
+ * Long running search daemon.  It keeps one ShardSearcherManager per root
+ * open so a query pays neither JVM startup nor a cold index open.
+ *
+ * The protocol is deliberately dumb: a client sends its command line
+ * (an int count followed by that many UTF strings) and gets back exactly
+ * the bytes the command would have printed, after which the server
+ * closes the connection.  See SearchClient for the other end.
+ *
+ * Any local user can connect to the port, so every request starts with
+ * a secret the server writes to tokenFile(port) on startup.  Only its
+ * own user can read that file, and a request without the secret is
+ * refused.
+ *
+ * The stats of all requests add up in one Stats, registered with the
+ * platform MBean server as org.lightgrok:type=Stats.
+ */
+public class SearchServer {
+    public static final int DEFAULT_PORT = 7878;
+
+    /** Runs one forwarded command line, printing its result to out. */
+    public interface RequestHandler {
+        void handle(SearchServer server, String[] args, PrintStream out) throws Exception;
+    }
+
+    private int mPort = DEFAULT_PORT;
+    private RequestHandler mHandler = null;
+    private byte[] mToken = null;
+    private ExecutorService mSearchPool = null;
+    private final Stats mStats = Stats.create();
+    private final Map<Path, ShardSearcherManager> mManagers = new HashMap<Path, ShardSearcherManager>();
+    private Logger mLogger = Logger.getLogger("lightgrok");
+
+    public static SearchServer createServerOnPort(int port, RequestHandler handler) {
+        SearchServer n = new SearchServer();
+        n.mPort = port;
+        n.mHandler = handler;
+        n.mSearchPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        n.mLogger.setLevel(Level.ERROR);
+        return n;
+    }
+    private SearchServer() {}
+
+    /** Where the server on port keeps the secret of its clients. */
+    public static Path tokenFile(int port) {
+        return PathProvider.rootIndexDirectory().resolve("server-" + port + ".token");
+    }
+
+    /** Accept connections on localhost until the process is killed. */
+    public void serve() throws IOException {
+        registerStats();
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(mPort, 50, InetAddress.getLoopbackAddress())) {
+            // only once the port is ours, a running server keeps its token
+            writeToken();
+            mLogger.info("listening on port " + mPort);
+            while (true) {
+                final Socket socket = server.accept();
+                pool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            handleConnection(socket);
+                        }
+                    });
+            }
+        } finally {
+            pool.shutdownNow();
+            closeManagers();
+            mSearchPool.shutdownNow();
+            if (mToken != null) {
+                Files.deleteIfExists(tokenFile(mPort));
+            }
+        }
+    }
+
+    /** A fresh secret in tokenFile, created readable by this user only. */
+    void writeToken() throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        byte[] token = BaseEncoding.base16().lowerCase().encode(random)
+            .getBytes(StandardCharsets.UTF_8);
+        Path file = tokenFile(mPort);
+        Files.createDirectories(file.getParent());
+        // fails on another user's file, which this one must not trust
+        Files.deleteIfExists(file);
+        Files.createFile(file, PosixFilePermissions.asFileAttribute(
+            EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        Files.write(file, token);
+        mToken = token;
+    }
+
+    /** Totals of all requests. */
+    public Stats stats() {
+        return mStats;
+    }
+
+    void registerStats() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(mStats, new ObjectName("org.lightgrok:type=Stats"));
+        } catch (JMException e) {
+            mLogger.info("can't register stats: " + e.getMessage());
+        }
+    }
+
+    /** Shared by all requests for segment search and hit verification. */
+    public ExecutorService searchPool() {
+        return mSearchPool;
+    }
+
+    /** The shared manager of root's index, opened on first use. */
+    public synchronized ShardSearcherManager managerFor(String root) throws IOException {
+        Path indexDir = PathProvider.indexDirectory(root);
+        ShardSearcherManager manager = mManagers.get(indexDir);
+        if (manager == null) {
+            manager = new ShardSearcherManager(indexDir, mSearchPool);
+            mManagers.put(indexDir, manager);
+        }
+        return manager;
+    }
+
+    void handleConnection(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            PrintStream out = new PrintStream(new BufferedOutputStream(s.getOutputStream()),
+                                              false, "UTF-8");
+            byte[] token = in.readUTF().getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(token, mToken)) {
+                out.println("lightgrok server: not the token of " + tokenFile(mPort));
+                out.flush();
+                return;
+            }
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+            try {
+                mHandler.handle(this, args, out);
+            } catch (Exception e) {
+                out.println("lightgrok server: " + e);
+            }
+            out.flush();
+        } catch (IOException e) {
+            mLogger.info("connection failed: " + e.getMessage());
+        }
+    }
+
+    synchronized void closeManagers() {
+        for (ShardSearcherManager manager : mManagers.values()) {
+            try {
+                manager.close();
+            } catch (IOException ignore) {
+            }
+        }
+        mManagers.clear();
+    }
+}
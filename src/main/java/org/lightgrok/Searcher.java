@@ -4,25 +4,60 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.Level;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.CollectionTerminatedException;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 /** Simple command-line based search demo. */
 public class Searcher {
@@ -30,32 +65,219 @@ public class Searcher {
     private Searcher() {}
 
     private String mRoot = null;
+    private boolean mStripRootLead = false;
+    private PrintStream mOut = System.out;
+    private ReferenceManager<IndexSearcher> mManager = null;
+    private boolean mStreaming = false;
+    private boolean mWord = false;
+    private boolean mDefinitions = false;
+    private boolean mRegex = false;
+    private boolean mFiles = false;
+    // what reported paths are relative to with -strip-root-lead
+    private String mReportRoot = null;
+    // the compiled search in regex mode, shared by the verifying threads
+    private Pattern mPattern = null;
+    private int mMaxCount = 0;
+    private int mPrinted = 0;
+    private int mThreads = 1;
+    private ExecutorService mExecutor = null;
+    private Stats mStats = Stats.DISABLED;
+    private boolean mCache = true;
+    // what the search printed and the stamps of the files it read, while
+    // it is going to be cached
+    private List<String> mPrintedLines = null;
+    private Map<String, Indexer.Stamp> mCandidates = null;
+    private boolean mCacheable = true;
 	private Logger mLogger = Logger.getLogger("lightgrok");
     public static Searcher createSearcherWithRoot(String root) {
         Searcher n = new Searcher();
         n.mRoot = root;
+        n.mStripRootLead = PathProvider.getStripRootLead();
 		n.mLogger.setLevel(Level.ERROR);
         return n;
     }
 
+    /** Per-searcher override of PathProvider's global flag. */
+    public void setStripRootLead(boolean enabled) {
+        mStripRootLead = enabled;
+    }
+
+    /** Where grep lines are written, System.out by default. */
+    public void setOutput(PrintStream out) {
+        mOut = out;
+    }
+
+    /**
+     * Report every hit while the index is still being searched instead
+     * of collecting the top 5000 documents first.
+     */
+    public void setStreaming(boolean streaming) {
+        mStreaming = streaming;
+    }
+
+    /**
+     * Match whole identifiers and their camelCase/snake_case words with
+     * an exact term lookup instead of substrings.
+     */
+    public void setWord(boolean word) {
+        mWord = word;
+    }
+
+    /**
+     * Treat the search as a symbol name and list where it is defined,
+     * straight from the index.
+     */
+    public void setDefinitions(boolean definitions) {
+        mDefinitions = definitions;
+    }
+
+    /**
+     * Treat the search as a java.util.regex pattern, matched ignoring
+     * case like plain searches are; "(?-i)" turns that off.
+     */
+    public void setRegex(boolean regex) {
+        mRegex = regex;
+    }
+
+    /**
+     * Treat the search as a file name, or some of its characters in
+     * order, and list the best matching paths, see FileFinder.
+     */
+    public void setFiles(boolean files) {
+        mFiles = files;
+    }
+
+    /**
+     * Report paths relative to dir instead of the root when stripping
+     * the root lead, e.g. the parent of all roots of a workspace.
+     */
+    public void setReportRoot(String dir) {
+        mReportRoot = dir;
+    }
+
+    /** Stop after this many grep lines, 0 for no limit. */
+    public void setMaxCount(int maxCount) {
+        mMaxCount = maxCount;
+    }
+
+    /**
+     * Search segments and verify hit files on this many threads.  A
+     * private pool is created for every search unless one is shared
+     * through setExecutor.
+     */
+    public void setThreads(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    /** A shared pool for segment search and verification, e.g. the daemon's. */
+    public void setExecutor(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Search through searchers of a long-lived manager instead of
+     * opening the index for every query.
+     */
+    public void setSearcherManager(ReferenceManager<IndexSearcher> manager) {
+        mManager = manager;
+    }
+
+    /** Where the stages of searching are timed, nowhere by default. */
+    public void setStats(Stats stats) {
+        mStats = stats;
+    }
+
+    /** Answer repeated searches from the ResultCache of the index, on by default. */
+    public void setCache(boolean cache) {
+        mCache = cache;
+    }
+
     public void doSearch(String search) throws Exception {
-        String fuzzySearch = "*" + search + "*";
-        Path indexDir = PathProvider.rootIndexDirectory();
-        final Path docDir = Paths.get(mRoot);
+        Path indexDir = PathProvider.indexDirectory(mRoot);
+
+        mOut.println("Index of directory '" + indexDir.toString() + "'...");
+
+        ResultCache cache = null;
+        String key = cacheKey(search);
+        if (mCache) {
+            Stats.Timer lookup = mStats.start(Stats.Stage.CACHE);
+            cache = ResultCache.createCacheWithIndex(indexDir);
+            boolean hit = cache.replay(key, mOut, mMaxCount);
+            lookup.stop();
+            if (hit) {
+                return;
+            }
+            mPrintedLines = new ArrayList<String>();
+            mCandidates = new ConcurrentHashMap<String, Indexer.Stamp>();
+        }
+        doSearchIndex(indexDir, search);
+        // A search cut short by -max-count isn't the whole answer.
+        if (cache != null && mCacheable && !isDone()) {
+            cache.store(key, mPrintedLines, mCandidates);
+        }
+        mPrintedLines = null;
+        mCandidates = null;
+    }
+
+    /** Everything that changes what a search prints. */
+    String cacheKey(String search) {
+        // -file is cut at its limit even without -max-count
+        // -stream prints in the order hits are found, not the ranked one
+        return (mFiles ? "file " + fileLimit() : mDefinitions ? "def" : mRegex ? "regex" : mWord ? "word" : "substring")
+            + (mStreaming ? " stream" : "")
+            + (mStripRootLead ? " strip " + mReportRoot + " " : " ") + search;
+    }
 
-        indexDir = Paths.get(indexDir.toString(),
-                             PathProvider.hashSourcePath(docDir.toString()));
+    void doSearchIndex(Path indexDir, String search) throws Exception {
+        if (mManager != null) {
+            // Picks up commits of a re-index since the last query.
+            mManager.maybeRefresh();
+            IndexSearcher searcher = mManager.acquire();
+            try {
+                doSearch(searcher, search);
+            } finally {
+                mManager.release(searcher);
+            }
+            return;
+        }
 
-        System.out.println("Index of directory '" + indexDir.toString() + "'...");
+        boolean ownExecutor = mExecutor == null && mThreads > 1;
+        if (ownExecutor) {
+            mExecutor = Executors.newFixedThreadPool(mThreads);
+        }
+        IndexReader reader = IndexShards.openReader(indexDir);
+        try {
+            doSearch(new IndexSearcher(reader, mExecutor), search);
+        } finally {
+            reader.close();
+            if (ownExecutor) {
+                mExecutor.shutdownNow();
+                mExecutor = null;
+            }
+        }
+    }
 
+    void doSearch(IndexSearcher searcher, String search) throws Exception {
+        if (mFiles) {
+            doFileSearch(searcher, search);
+            return;
+        }
+        if (mDefinitions) {
+            doDefinitionSearch(searcher, search);
+            return;
+        }
+        if (mRegex) {
+            doRegexSearch(searcher, search);
+            return;
+        }
+        Stats.Timer parse = mStats.start(Stats.Stage.PARSE);
+        String fuzzySearch = "*" + search + "*";
         String field = "contents";
         int repeat = 0;
         boolean raw = false;
         String queryString = fuzzySearch;
 
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(indexDir));
-        IndexSearcher searcher = new IndexSearcher(reader);
-        Analyzer analyzer = new StandardAnalyzer();
+        Analyzer analyzer = new CodeAnalyzer();
 
         QueryParser parser = new QueryParser(field, analyzer);
         parser.setAllowLeadingWildcard(true);
@@ -71,7 +293,16 @@ public class Searcher {
                 break;
             }
 
-            Query query = parser.parse(line);
+            Query query = mWord ? wordQuery(search) : null;
+            if (query == null) {
+                query = TrigramAnalyzer.substringQuery(search);
+            }
+            if (query == null || !hasField(searcher, TrigramAnalyzer.FIELD)) {
+                // Too short for a trigram, or an index from before they
+                // were kept: enumerate the term dictionary instead.
+                query = parser.parse(line);
+            }
+            parse.stop();
             // System.out.println("Searching for: " + query.toString(field));
 			mLogger.info("Searching for: " + query.toString(field));
 
@@ -81,14 +312,124 @@ public class Searcher {
                 break;
             }
         }
-        reader.close();
+    }
+
+    /**
+     * Print the definitions of symbol recorded by the indexer, as grep
+     * lines.  Nothing but stored fields is read, the files are never
+     * opened, so what is printed is as of the last index run.
+     */
+    void doDefinitionSearch(IndexSearcher searcher, String symbol) throws IOException {
+        String name = SymbolScanner.simpleName(symbol);
+        Query query = new TermQuery(new Term(SymbolScanner.FIELD, name));
+        mLogger.info("Searching for: " + query);
+
+        Stats.Timer lookup = mStats.start(Stats.Stage.SEARCH);
+        TopDocs results = searcher.search(query, 5000);
+        lookup.stop();
+        for (ScoreDoc hit : results.scoreDocs) {
+            Document doc = searcher.doc(hit.doc);
+            List<String> paths = new ArrayList<String>();
+            paths.add(doc.get("path"));
+            // copies of the file define the same
+            for (Duplicates.Alias alias
+                     : Duplicates.aliasesOf(searcher.getIndexReader(), hit.doc, paths.get(0))) {
+                paths.add(alias.path);
+            }
+            List<SymbolScanner.Symbol> definitions =
+                SymbolScanner.decode(doc.get(SymbolScanner.STORED_FIELD));
+            for (String path : paths) {
+                for (SymbolScanner.Symbol definition : definitions) {
+                    if (isDone()) {
+                        break;
+                    }
+                    if (definition.name.equals(name)) {
+                        println(formatLine(path, definition.line, definition.text));
+                    }
+                }
+            }
+        }
+        mOut.flush();
+    }
+
+    /** Print the paths of the best matching files, best first. */
+    int fileLimit() {
+        return mMaxCount > 0 ? mMaxCount : FileFinder.DEFAULT_LIMIT;
+    }
+
+    void doFileSearch(IndexSearcher searcher, String query) throws IOException {
+        Stats.Timer lookup = mStats.start(Stats.Stage.SEARCH);
+        List<FileFinder.Match> matches =
+            FileFinder.find(searcher.getIndexReader(), Paths.get(mRoot).toString(), query,
+                            fileLimit());
+        lookup.stop();
+        for (FileFinder.Match match : matches) {
+            println(reportPath(match.path));
+        }
+        mOut.flush();
+    }
+
+    /**
+     * Prefilter documents by the literals the pattern requires, then
+     * run the pattern over every candidate.
+     */
+    void doRegexSearch(IndexSearcher searcher, String regex) throws IOException {
+        Stats.Timer parse = mStats.start(Stats.Stage.PARSE);
+        try {
+            mPattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+        } catch (PatternSyntaxException e) {
+            mCacheable = false;
+            mOut.println(e.getMessage());
+            return;
+        }
+        Query query = hasField(searcher, TrigramAnalyzer.FIELD)
+            ? RegexPrefilter.query(regex) : new MatchAllDocsQuery();
+        parse.stop();
+        mLogger.info("Searching for: " + query);
+        doSearchInternal(searcher, query, false, regex);
+    }
+
+    /**
+     * An exact lookup of the identifier, or identifier part, search in
+     * the contents field; null if search is not a single token, in which
+     * case the substring search is used.
+     */
+    static Query wordQuery(String search) {
+        if (!CodeAnalyzer.TOKEN.matcher(search).matches()) {
+            return null;
+        }
+        return new TermQuery(new Term("contents", search.toLowerCase(Locale.ROOT)));
+    }
+
+    static boolean hasField(IndexSearcher searcher, String field) {
+        return MultiFields.getMergedFieldInfos(searcher.getIndexReader()).fieldInfo(field) != null;
     }
 
     public void doSearchInternal(IndexSearcher searcher, Query query,
                                         boolean raw, String rawQuery) throws IOException {
+        HitReporter reporter = new HitReporter(searcher, rawQuery);
+        try {
+            if (mStreaming) {
+                // includes the verification done right in the collector
+                Stats.Timer search = mStats.start(Stats.Stage.SEARCH);
+                searcher.search(query, new StreamingCollector(reporter));
+                search.stop();
+            } else {
+                collectAndReport(searcher, query, raw, reporter);
+            }
+            reporter.finish();
+        } finally {
+            // the caller closes the index once this returns
+            reporter.await();
+        }
+    }
 
+    void collectAndReport(IndexSearcher searcher, Query query, boolean raw,
+                          HitReporter reporter) throws IOException {
         // Collect enough docs to show 5 pages
+        Stats.Timer search = mStats.start(Stats.Stage.SEARCH);
         TopDocs results = searcher.search(query, 5000);
+        search.stop();
         ScoreDoc[] hits = results.scoreDocs;
 
         int numTotalHits = results.totalHits;
@@ -119,38 +460,488 @@ public class Searcher {
             }
 
             if (grep_report) {
-                // System.out.println("try report " + query.toString());
-                Document doc = searcher.doc(hits[i].doc);
-                String path = doc.get("path");
-                final Path docPath = Paths.get(path);
-
-                try (InputStream stream = Files.newInputStream(docPath)) {
-                    BufferedReader br = new BufferedReader(
-                            new InputStreamReader(stream,
-                                                  StandardCharsets.UTF_8));
-                    String line;
-                    int lineCount = 0;
-                    // process the line.
-                    while ((line = br.readLine()) != null) {
-                        ++lineCount;
-                        String icLine = line.toLowerCase();
-                        if (icLine.indexOf(rawQuery.toLowerCase()) != -1) {
-                            if (line.length() > 200) {
-                                line = line.substring(0, 200);
-                            }
-                            String reportPath = path;
-                            if (PathProvider.getStripRootLead()
-                                && path.startsWith(mRoot)) {
-                                reportPath = "./" + path.substring(mRoot.length());
-                            }
-                            System.out.print(reportPath + ":" + lineCount + ":\t" + line);
-                            System.out.println();
+                reporter.add(hits[i].doc);
+                if (isDone()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Verifies and prints each document as soon as it is found, in index
+     * order and without scoring, flushing after every file so a reader on
+     * the other end of a pipe sees the first results right away.
+     */
+    final class StreamingCollector extends SimpleCollector {
+        private final HitReporter mReporter;
+        private int mDocBase = 0;
+
+        StreamingCollector(HitReporter reporter) {
+            mReporter = reporter;
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            if (isDone()) {
+                // skips this segment, and so every one after the limit
+                throw new CollectionTerminatedException();
+            }
+            mDocBase = context.docBase;
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            mReporter.add(mDocBase + doc);
+            if (isDone()) {
+                throw new CollectionTerminatedException();
+            }
+        }
+
+        @Override
+        public boolean needsScores() {
+            return false;
+        }
+    }
+
+    /** Print a result line, the only way results are printed. */
+    void println(String line) {
+        mOut.println(line);
+        mPrinted++;
+        if (mPrintedLines != null) {
+            mPrintedLines.add(line);
+        }
+    }
+
+    boolean isDone() {
+        return mMaxCount > 0 && mPrinted >= mMaxCount;
+    }
+
+    /**
+     * Hands hits over for verification and prints their lines in the
+     * order the hits were added.  Without an executor every hit is
+     * verified right away; with one, up to a window of hits are verified
+     * concurrently while this thread stays the only writer, so output is
+     * identical to a sequential run.  Once -max-count is reached, hits
+     * not started yet are skipped, but running ones are still waited
+     * for: they read the index, which must stay open until await().
+     */
+    final class HitReporter {
+        private final IndexSearcher mSearcher;
+        private final String mRawQuery;
+        private final ArrayDeque<Future<List<String>>> mPending =
+            new ArrayDeque<Future<List<String>>>();
+        // set by the writer at -max-count, read by the verifying threads
+        private volatile boolean mStopped = false;
+
+        HitReporter(IndexSearcher searcher, String rawQuery) {
+            mSearcher = searcher;
+            mRawQuery = rawQuery;
+        }
+
+        void add(final int docId) throws IOException {
+            if (mExecutor == null) {
+                print(verifyHit(mSearcher, docId, mRawQuery));
+                return;
+            }
+            mPending.add(mExecutor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        if (mStopped) {
+                            return Collections.<String>emptyList();
                         }
+                        return verifyHit(mSearcher, docId, mRawQuery);
                     }
-                } catch (IOException e) {
-                    System.out.println("io exception for: " + path);
+                }));
+            // Write whatever is ready, and wait once enough is in flight.
+            while (!mPending.isEmpty()
+                   && (mPending.peek().isDone() || mPending.size() > mThreads * 8)) {
+                print(take());
+            }
+        }
+
+        void finish() throws IOException {
+            while (!mPending.isEmpty()) {
+                print(take());
+            }
+        }
+
+        /** Wait for every hit still in flight, whatever its outcome. */
+        void await() {
+            mStopped = true;
+            boolean interrupted = false;
+            while (!mPending.isEmpty()) {
+                try {
+                    mPending.peek().get();
+                } catch (InterruptedException e) {
+                    // keep waiting, the index is closed next
+                    interrupted = true;
+                    continue;
+                } catch (ExecutionException e) {
+                    // thrown by take() already, or dropped after a failure
+                }
+                mPending.poll();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private List<String> take() throws IOException {
+            try {
+                // dropped only once it is done, see await()
+                List<String> lines = mPending.peek().get();
+                mPending.poll();
+                return lines;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while verifying hits");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        private void print(List<String> lines) {
+            Stats.Timer output = mStats.start(Stats.Stage.OUTPUT);
+            long chars = 0;
+            for (String line : lines) {
+                if (isDone()) {
+                    break;
+                }
+                println(line);
+                chars += line.length() + 1;
+            }
+            mStopped = isDone();
+            mOut.flush();
+            output.stop(chars);
+        }
+    }
+
+    /** The grep lines of one hit, read back from index and file. */
+    List<String> verifyHit(IndexSearcher searcher, int docId, String rawQuery) {
+        Stats.Timer verify = mStats.start(Stats.Stage.VERIFY);
+        try {
+            return verifyHit(searcher, docId, rawQuery, new ArrayList<String>());
+        } finally {
+            verify.stop();
+        }
+    }
+
+    private List<String> verifyHit(IndexSearcher searcher, int docId, String rawQuery,
+                                   List<String> out) {
+        IndexReader reader = searcher.getIndexReader();
+        if (Duplicates.isAlias(reader, docId)) {
+            // reported along with its canonical document
+            return out;
+        }
+        String path = null;
+        try {
+            Document doc = searcher.doc(docId);
+            path = doc.get("path");
+            boolean verified = verifyFile(searcher, docId, doc, path, rawQuery, out);
+            List<Duplicates.Alias> aliases = Duplicates.aliasesOf(reader, docId, path);
+            if (!aliases.isEmpty()) {
+                verifyAliases(searcher, docId, path, verified, aliases, rawQuery, out);
+            }
+        } catch (IOException e) {
+            out.add("io exception for: " + path);
+        }
+        return out;
+    }
+
+    /** Verify the file of a hit, false if it couldn't be read. */
+    private boolean verifyFile(IndexSearcher searcher, int docId, Document doc, String path,
+                               String rawQuery, List<String> out) {
+        // System.out.println("try report " + query.toString());
+        try {
+            if (mCandidates != null) {
+                // before it is read, a change meanwhile makes the entry stale
+                mCandidates.put(path, ResultCache.stamp(path));
+            }
+            BytesRef lines = doc.getBinaryValue("lines");
+
+            if (mPattern != null) {
+                verifyByRegex(path, out);
+                return true;
+            }
+            if (lines != null && CodeAnalyzer.isIdentifierQuery(rawQuery)) {
+                Terms vector = searcher.getIndexReader().getTermVector(docId, "contents");
+                if (vector != null && vector.hasOffsets()
+                    && isUnchanged(searcher, docId, Paths.get(path))) {
+                    if (verifyFromTermVector(path, vector, LineTable.decode(lines), rawQuery,
+                                             mWord, out) || mWord) {
+                        return true;
+                    }
+                    // Indexes from before CodeAnalyzer.LONG_TOKEN lack
+                    // long tokens, e.g. minified lines, which have trigrams.
+                }
+            }
+            verifyByScan(path, rawQuery, out);
+            return true;
+        } catch (IOException e) {
+            out.add("io exception for: " + path);
+            return false;
+        } catch (RuntimeException e) {
+            // whatever a file does, the other hits are still reported
+            mLogger.error("can't verify " + path, e);
+            out.add("io exception for: " + path);
+            return false;
+        }
+    }
+
+    /**
+     * Report the copies of a verified file.  While both are as they were
+     * indexed, a copy has the very lines of the file; one that changed
+     * since is verified by itself.
+     */
+    void verifyAliases(IndexSearcher searcher, int docId, String path, boolean verified,
+                       List<Duplicates.Alias> aliases, String rawQuery,
+                       List<String> out) throws IOException {
+        List<String> lines = new ArrayList<String>(out);
+        String prefix = reportPath(path) + ":";
+        boolean unchanged;
+        try {
+            unchanged = verified && isUnchanged(searcher, docId, Paths.get(path));
+        } catch (IOException e) {
+            unchanged = false;
+        }
+        for (Duplicates.Alias alias : aliases) {
+            if (isFull(out)) {
+                break;
+            }
+            Indexer.Stamp stamp = ResultCache.stamp(alias.path);
+            if (mCandidates != null) {
+                mCandidates.put(alias.path, stamp);
+            }
+            if (unchanged && stamp.matches(alias.modified, alias.size)) {
+                String aliasPrefix = reportPath(alias.path) + ":";
+                for (String line : lines) {
+                    if (isFull(out)) {
+                        break;
+                    }
+                    out.add(aliasPrefix + line.substring(prefix.length()));
+                }
+                continue;
+            }
+            try {
+                if (mPattern != null) {
+                    verifyByRegex(alias.path, out);
+                } else {
+                    verifyByScan(alias.path, rawQuery, out);
                 }
+            } catch (IOException e) {
+                out.add("io exception for: " + alias.path);
             }
         }
     }
+
+    /** Verifying a file can stop once it alone fills the limit. */
+    boolean isFull(List<String> out) {
+        return mMaxCount > 0 && out.size() >= mMaxCount;
+    }
+
+    /** The offsets in the index are only good if the file wasn't touched since. */
+    boolean isUnchanged(IndexSearcher searcher, int docId, Path path) throws IOException {
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext ctx = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        NumericDocValues modified = ctx.reader().getNumericDocValues("modified");
+        NumericDocValues size = ctx.reader().getNumericDocValues("size");
+        if (modified == null || size == null) {
+            return false;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return modified.get(docId - ctx.docBase) == attrs.lastModifiedTime().toMillis()
+            && size.get(docId - ctx.docBase) == attrs.size();
+    }
+
+    /**
+     * Map the offsets of every term containing the query, or equal to it
+     * if exact, to lines and read just those lines back from the file.
+     * A substring may also sit in a CodeAnalyzer.LONG_TOKEN, whose lines
+     * are read back and kept if they hold it.  False if no term matched.
+     */
+    boolean verifyFromTermVector(String path, Terms vector, LineTable table,
+                              String rawQuery, boolean exact,
+                              List<String> out) throws IOException {
+        String needle = rawQuery.toLowerCase(Locale.ROOT);
+        TreeSet<Integer> matched = new TreeSet<Integer>();
+        // lines with a long token, which may hold a substring match
+        Set<Integer> unsure = new HashSet<Integer>();
+        TermsEnum te = vector.iterator();
+        PostingsEnum pe = null;
+        BytesRef term;
+        while ((term = te.next()) != null) {
+            String text = term.utf8ToString();
+            boolean isLong = text.equals(CodeAnalyzer.LONG_TOKEN);
+            if (isLong ? exact : exact ? !text.equals(needle) : text.indexOf(needle) == -1) {
+                continue;
+            }
+            pe = te.postings(pe, PostingsEnum.OFFSETS);
+            pe.nextDoc();
+            for (int i = 0; i < pe.freq(); i++) {
+                pe.nextPosition();
+                int line = table.lineOf(pe.startOffset());
+                if (matched.add(line) && isLong) {
+                    unsure.add(line);
+                } else if (!isLong) {
+                    unsure.remove(line);
+                }
+            }
+        }
+        if (matched.isEmpty()) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            for (int line : matched) {
+                if (isFull(out)) {
+                    break;
+                }
+                long start = table.byteStart(line);
+                ByteBuffer buffer = FileBytes.read(channel, start, (int) (table.byteEnd(line) - start));
+                String text = stripLineTerminator(FileBytes.decode(buffer));
+                if (unsure.contains(line) && text.toLowerCase(Locale.ROOT).indexOf(needle) == -1) {
+                    continue;
+                }
+                out.add(formatLine(path, line + 1, text));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the query in the raw bytes of the file, counting newlines on
+     * the way, and decode only the lines it occurs in.  ASCII queries are
+     * matched ignoring ASCII case; anything else needs the decoded text.
+     */
+    void verifyByScan(String path, String rawQuery, List<String> out) throws IOException {
+        if (!FileBytes.isAscii(rawQuery)
+            || rawQuery.indexOf('\n') != -1 || rawQuery.indexOf('\r') != -1) {
+            verifyByDecodedScan(path, rawQuery, out);
+            return;
+        }
+        byte[] needle = FileBytes.lowerAscii(rawQuery);
+        ByteBuffer content = FileBytes.read(Paths.get(path));
+        try {
+            int limit = content.limit();
+            int lineNumber = 1;
+            int lineStart = 0;
+            int counted = 0;
+            int match;
+            while (!isFull(out)
+                   && (match = FileBytes.indexOfIgnoreAsciiCase(content, counted, limit, needle)) != -1) {
+                for (int i = counted; i < match; i++) {
+                    if (content.get(i) == '\n') {
+                        lineNumber++;
+                        lineStart = i + 1;
+                    }
+                }
+                int lineEnd = FileBytes.endOfLine(content, match, limit);
+                int textEnd = lineEnd > lineStart && content.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                out.add(formatLine(path, lineNumber, FileBytes.decode(content, lineStart, textEnd)));
+                // continue on the next line, whose '\n' gets counted above
+                counted = lineEnd;
+            }
+        } catch (InternalError e) {
+            throw FileBytes.truncated(path, e);
+        } finally {
+            FileBytes.release(content);
+        }
+    }
+
+    /**
+     * Run the regex over the file and report every line it matches in,
+     * like grep: a match is looked for within one line at a time, with
+     * ^ and $ at the line ends.  ASCII files are matched on their bytes
+     * as they are; anything else is decoded first so '.' and friends
+     * see chars.
+     */
+    void verifyByRegex(String path, List<String> out) throws IOException {
+        ByteBuffer content = FileBytes.read(Paths.get(path));
+        try {
+            CharSequence text = FileBytes.isAscii(content)
+                ? FileBytes.asAscii(content) : FileBytes.decode(content);
+            Matcher matcher = mPattern.matcher(text);
+            // lookarounds may still peek across the line ends
+            matcher.useTransparentBounds(true);
+            int length = text.length();
+            int lineNumber = 1;
+            int counted = 0;
+            int from = 0;
+            while (!isFull(out) && from <= length && matcher.region(from, length).find()) {
+                int match = matcher.start();
+                int lineStart = from;
+                for (int i = counted; i < match; i++) {
+                    if (text.charAt(i) == '\n') {
+                        lineNumber++;
+                        lineStart = i + 1;
+                    }
+                }
+                int lineEnd = match;
+                while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int textEnd = lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                // A match that only starts here, running into the next
+                // lines, doesn't count unless the line matches by itself.
+                if (matcher.end() <= textEnd || matcher.region(lineStart, textEnd).find()) {
+                    out.add(formatLine(path, lineNumber, text.subSequence(lineStart, textEnd).toString()));
+                }
+                // continue on the next line, whose '\n' gets counted above
+                counted = lineEnd;
+                from = lineEnd + 1;
+            }
+        } catch (InternalError e) {
+            throw FileBytes.truncated(path, e);
+        } finally {
+            FileBytes.release(content);
+        }
+    }
+
+    void verifyByDecodedScan(String path, String rawQuery, List<String> out) throws IOException {
+        final Path docPath = Paths.get(path);
+
+        try (InputStream stream = Files.newInputStream(docPath)) {
+            BufferedReader br = new BufferedReader(
+                    new InputStreamReader(stream,
+                                          StandardCharsets.UTF_8));
+            String line;
+            int lineCount = 0;
+            // process the line.
+            while ((line = br.readLine()) != null && !isFull(out)) {
+                ++lineCount;
+                String icLine = line.toLowerCase(Locale.ROOT);
+                if (icLine.indexOf(rawQuery.toLowerCase(Locale.ROOT)) != -1) {
+                    out.add(formatLine(path, lineCount, line));
+                }
+            }
+        }
+    }
+
+    static String stripLineTerminator(String line) {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\n') {
+            end--;
+        }
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    String formatLine(String path, int lineNumber, String line) {
+        if (line.length() > 200) {
+            line = line.substring(0, 200);
+        }
+        return reportPath(path) + ":" + lineNumber + ":\t" + line;
+    }
+
+    String reportPath(String path) {
+        String lead = mReportRoot != null ? mReportRoot : mRoot;
+        if (mStripRootLead
+            && path.startsWith(lead)) {
+            return "./" + path.substring(lead.length());
+        }
+        return path;
+    }
 }
@@ -0,0 +1,111 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * SearcherManager for an index that may be split into shards, see
+ * IndexShards.  The searcher reads all shards through one MultiReader;
+ * a refresh only reopens the shards that changed, and everything when
+ * the index was re-sharded.
+ */
+public class ShardSearcherManager extends ReferenceManager<IndexSearcher> {
+    private final Path mIndexDir;
+    private final ExecutorService mExecutor;
+
+    /** A MultiReader that remembers its shards, to reopen them one by one. */
+    static class ShardReader extends MultiReader {
+        final List<Path> mDirs;
+        final DirectoryReader[] mShards;
+
+        ShardReader(List<Path> dirs, DirectoryReader[] shards) throws IOException {
+            // Holds its own reference on every shard.
+            super(shards, false);
+            mDirs = dirs;
+            mShards = shards;
+        }
+    }
+
+    public ShardSearcherManager(Path indexDir, ExecutorService executor) throws IOException {
+        mIndexDir = indexDir;
+        mExecutor = executor;
+        List<Path> dirs = IndexShards.directories(indexDir);
+        DirectoryReader[] shards = new DirectoryReader[dirs.size()];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = DirectoryReader.open(FSDirectory.open(dirs.get(i)));
+            }
+            current = newSearcher(dirs, shards);
+        } finally {
+            release(shards);
+        }
+    }
+
+    private IndexSearcher newSearcher(List<Path> dirs, DirectoryReader[] shards)
+        throws IOException {
+        return new IndexSearcher(new ShardReader(dirs, shards), mExecutor);
+    }
+
+    // Drops the references of the opener, the ShardReader keeps its own.
+    private static void release(DirectoryReader[] shards) throws IOException {
+        for (DirectoryReader shard : shards) {
+            if (shard != null) {
+                shard.decRef();
+            }
+        }
+    }
+
+    @Override
+    protected void decRef(IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+        ShardReader old = (ShardReader) referenceToRefresh.getIndexReader();
+        List<Path> dirs = IndexShards.directories(mIndexDir);
+        DirectoryReader[] shards = new DirectoryReader[dirs.size()];
+        try {
+            boolean changed = !dirs.equals(old.mDirs);
+            for (int i = 0; i < shards.length; i++) {
+                if (changed) {
+                    shards[i] = DirectoryReader.open(FSDirectory.open(dirs.get(i)));
+                    continue;
+                }
+                shards[i] = DirectoryReader.openIfChanged(old.mShards[i]);
+                if (shards[i] == null) {
+                    // unchanged, shared with the old reader
+                    old.mShards[i].incRef();
+                    shards[i] = old.mShards[i];
+                } else {
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                return null;
+            }
+            return newSearcher(dirs, shards);
+        } finally {
+            release(shards);
+        }
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+}
@@ -0,0 +1,325 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+
+/**
+ * Counts, bytes, latency histograms and allocated bytes of every stage
+ * of indexing and searching, for -stats, -stats-json and the MBean of
+ * -serve.
+ *
+ * A stage is timed with start(stage) ... stop().  DISABLED hands out a
+ * timer that does nothing, so instrumented code costs next to nothing
+ * when no one asked for numbers.  Allocation is read from the JVM's per
+ * thread counters where the JVM has them.
+ */
+public class Stats implements StatsMXBean {
+    public enum Stage {
+        // indexing
+        WALK, DETECT, READ, SCAN, ANALYZE, ADD, COMMIT,
+        // searching
+        CACHE, PARSE, SEARCH, VERIFY, OUTPUT;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public static final Stats DISABLED = new Stats(false, null);
+
+    // histogram bucket i counts latencies in [2^i, 2^(i+1)) nanoseconds
+    static final int BUCKETS = 48;
+
+    private static final com.sun.management.ThreadMXBean sThreads = threadBean();
+
+    // analysis time of the current thread, see timeAnalysis
+    private static final ThreadLocal<long[]> sAnalysisNanos = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+
+    static final class Counter {
+        final LongAdder count = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder allocated = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void add(long b, long n, long a) {
+            count.increment();
+            bytes.add(b);
+            nanos.add(n);
+            allocated.add(a);
+            long m;
+            while (n > (m = max.get()) && !max.compareAndSet(m, n)) {
+            }
+            histogram.incrementAndGet(bucket(n));
+        }
+
+        /** Upper bound of the latency below which fraction of the samples are. */
+        long percentile(double fraction) {
+            long total = count.sum();
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram.get(i);
+                if (total > 0 && seen >= fraction * total) {
+                    return Math.min(1L << (i + 1), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+
+    /** A running measurement of one stage. */
+    public static final class Timer {
+        static final Timer NONE = new Timer(null, null);
+
+        private final Stats mStats;
+        private final Stage mStage;
+        private final long mStart;
+        private final long mAllocated;
+
+        Timer(Stats stats, Stage stage) {
+            mStats = stats;
+            mStage = stage;
+            mAllocated = stats == null ? 0 : allocatedBytes();
+            mStart = stats == null ? 0 : System.nanoTime();
+        }
+
+        /** Record the stage, returns its nanoseconds. */
+        public long stop() {
+            return stop(0, 0);
+        }
+
+        public long stop(long bytes) {
+            return stop(bytes, 0);
+        }
+
+        /** Record the stage less excluded nanoseconds spent in others. */
+        public long stop(long bytes, long excluded) {
+            if (mStats == null) {
+                return 0;
+            }
+            long nanos = System.nanoTime() - mStart - excluded;
+            long allocated = mAllocated < 0 ? 0 : allocatedBytes() - mAllocated;
+            mStats.record(mStage, bytes, nanos, allocated);
+            return nanos;
+        }
+    }
+
+    private final boolean mEnabled;
+    // also gets everything recorded here, e.g. the daemon's totals
+    private final Stats mParent;
+    private volatile Counter[] mCounters;
+
+    public static Stats create() {
+        return new Stats(true, null);
+    }
+
+    /** Stats of e.g. one request that also add up in parent. */
+    public static Stats createWithParent(Stats parent) {
+        return new Stats(true, parent);
+    }
+
+    private Stats(boolean enabled, Stats parent) {
+        mEnabled = enabled;
+        mParent = parent;
+        reset();
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public Timer start(Stage stage) {
+        return mEnabled ? new Timer(this, stage) : Timer.NONE;
+    }
+
+    public void record(Stage stage, long bytes, long nanos, long allocated) {
+        if (!mEnabled) {
+            return;
+        }
+        mCounters[stage.ordinal()].add(bytes, Math.max(nanos, 0), allocated);
+        if (mParent != null) {
+            mParent.record(stage, bytes, nanos, allocated);
+        }
+    }
+
+    @Override
+    public void reset() {
+        Counter[] counters = new Counter[Stage.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new Counter();
+        }
+        mCounters = counters;
+    }
+
+    static int bucket(long nanos) {
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()
+                && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    /** Bytes allocated by the current thread so far, -1 if unknown. */
+    static long allocatedBytes() {
+        return sThreads == null ? -1 : sThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Analysis runs inside IndexWriter.addDocument, so it's timed by a
+     * filter at the end of every token stream of analyzer, adding up per
+     * thread, see analysisNanos.
+     */
+    public Analyzer timeAnalysis(final Analyzer analyzer) {
+        if (!mEnabled) {
+            return analyzer;
+        }
+        return new AnalyzerWrapper(Analyzer.PER_FIELD_REUSE_STRATEGY) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName,
+                                                           TokenStreamComponents components) {
+                return new TokenStreamComponents(components.getTokenizer(),
+                                                 new TimingFilter(components.getTokenStream()));
+            }
+        };
+    }
+
+    /** Nanoseconds the current thread spent in timed analysis so far. */
+    static long analysisNanos() {
+        return sAnalysisNanos.get()[0];
+    }
+
+    static final class TimingFilter extends TokenFilter {
+        private final long[] mNanos = sAnalysisNanos.get();
+
+        TimingFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return input.incrementToken();
+            } finally {
+                mNanos[0] += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /** A table of all stages that were recorded. */
+    @Override
+    public String getReport() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%-8s %9s %10s %9s %9s %9s %9s %10s %9s %9s%n",
+                                 "stage", "count", "total ms", "mean us", "p50 us",
+                                 "p99 us", "max us", "MB", "MB/s", "alloc MB/s"));
+        for (Stage stage : Stage.values()) {
+            Counter c = mCounters[stage.ordinal()];
+            long count = c.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            long nanos = c.nanos.sum();
+            double seconds = Math.max(nanos, 1) / 1e9;
+            double mb = c.bytes.sum() / (1024.0 * 1024.0);
+            out.append(String.format(Locale.ROOT,
+                                     "%-8s %9d %10.1f %9.1f %9.1f %9.1f %9.1f %10.2f %9.1f %9.1f%n",
+                                     stage.label(), count, nanos / 1e6, nanos / 1e3 / count,
+                                     c.percentile(0.5) / 1e3, c.percentile(0.99) / 1e3,
+                                     c.max.get() / 1e3, mb, mb / seconds,
+                                     c.allocated.sum() / (1024.0 * 1024.0) / seconds));
+        }
+        return out.toString();
+    }
+
+    /** The same as getReport, with the whole histograms, as JSON. */
+    @Override
+    public String getJson() {
+        StringBuilder out = new StringBuilder("{\n  \"stages\": {");
+        String separator = "\n";
+        for (Stage stage : Stage.values()) {
+            Counter c = mCounters[stage.ordinal()];
+            if (c.count.sum() == 0) {
+                continue;
+            }
+            out.append(separator).append("    \"").append(stage.label()).append("\": {")
+                .append("\"count\": ").append(c.count.sum())
+                .append(", \"nanos\": ").append(c.nanos.sum())
+                .append(", \"bytes\": ").append(c.bytes.sum())
+                .append(", \"allocatedBytes\": ").append(c.allocated.sum())
+                .append(", \"p50Nanos\": ").append(c.percentile(0.5))
+                .append(", \"p90Nanos\": ").append(c.percentile(0.9))
+                .append(", \"p99Nanos\": ").append(c.percentile(0.99))
+                .append(", \"maxNanos\": ").append(c.max.get())
+                .append(", \"histogramLog2Nanos\": [");
+            int last = BUCKETS - 1;
+            while (last > 0 && c.histogram.get(last) == 0) {
+                last--;
+            }
+            for (int i = 0; i <= last; i++) {
+                out.append(i == 0 ? "" : ", ").append(c.histogram.get(i));
+            }
+            out.append("]}");
+            separator = ",\n";
+        }
+        out.append("\n  }\n}\n");
+        return out.toString();
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (Stage stage : Stage.values()) {
+            counts.put(stage.label(), mCounters[stage.ordinal()].count.sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getTotalMillis() {
+        Map<String, Long> millis = new LinkedHashMap<String, Long>();
+        for (Stage stage : Stage.values()) {
+            millis.put(stage.label(), mCounters[stage.ordinal()].nanos.sum() / 1000000);
+        }
+        return millis;
+    }
+
+    @Override
+    public Map<String, Long> getBytes() {
+        Map<String, Long> bytes = new LinkedHashMap<String, Long>();
+        for (Stage stage : Stage.values()) {
+            bytes.put(stage.label(), mCounters[stage.ordinal()].bytes.sum());
+        }
+        return bytes;
+    }
+}
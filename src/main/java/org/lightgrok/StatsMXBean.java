@@ -0,0 +1,21 @@
+package org.lightgrok;
+
+import java.util.Map;
+
+/** What -serve exposes of its Stats over JMX, as org.lightgrok:type=Stats. */
+public interface StatsMXBean {
+    /** Samples per stage. */
+    Map<String, Long> getCounts();
+
+    Map<String, Long> getTotalMillis();
+
+    Map<String, Long> getBytes();
+
+    /** The -stats table. */
+    String getReport();
+
+    /** The -stats-json document. */
+    String getJson();
+
+    void reset();
+}
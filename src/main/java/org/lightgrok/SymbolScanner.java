@@ -0,0 +1,308 @@
+package org.lightgrok;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds where classes, functions, methods, macros and fields are
+ * defined, ctags style: a few regexes per language, run over every line
+ * while indexing.
+ *
+ * The scanners look at one line at a time and don't parse anything, so
+ * they miss definitions split over lines in unusual ways and now and
+ * then report something that only looks like one.  That is the price
+ * for costing next to nothing next to the analysis of the same text.
+ */
+public class SymbolScanner {
+    /** Indexed, untokenized names of every definition in a file. */
+    public static final String FIELD = "defs";
+    /** Stored definitions of a file, see encode. */
+    public static final String STORED_FIELD = "symbols";
+
+    // Longer lines are generated or minified code.
+    static final int MAX_LINE_LENGTH = 500;
+    static final int MAX_TEXT_LENGTH = 200;
+
+    /** One definition: its name, 1-based line, kind and the line itself. */
+    public static final class Symbol {
+        public final String name;
+        public final int line;
+        public final String kind;
+        public final String text;
+
+        Symbol(String name, int line, String kind, String text) {
+            this.name = name;
+            this.line = line;
+            this.kind = kind;
+            this.text = text;
+        }
+    }
+
+    static final class Rule {
+        final Pattern pattern;
+        final String kind;
+
+        Rule(String regex, String kind) {
+            this.pattern = Pattern.compile(regex);
+            this.kind = kind;
+        }
+    }
+
+    // Things that are followed by '(' without being defined there.
+    static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+        "if", "else", "for", "foreach", "while", "do", "switch", "case", "return",
+        "catch", "sizeof", "new", "delete", "throw", "function", "defined"));
+
+    // The parameter list of a definition: not followed by ';' unless
+    // the body starts on the same line.
+    static final String PARAMETERS = "\\s*\\((?:[^;]*|[^;{]*\\)[^;{]*\\{.*)$";
+
+    static final List<Rule> C_RULES = Arrays.asList(
+        new Rule("^\\s*#\\s*define\\s+([A-Za-z_]\\w*)", "macro"),
+        new Rule("^\\s*(?:template\\s*<.*>\\s*)?(?:typedef\\s+)?(?:class|struct|union)\\s+"
+                 + "(?:[A-Z_][A-Z0-9_]*\\s+)?([A-Za-z_]\\w*)\\s*(?:final\\s*)?(?:[:{]|$)", "class"),
+        new Rule("^\\s*(?:typedef\\s+)?enum\\s+(?:class\\s+|struct\\s+)?([A-Za-z_]\\w*)\\s*(?:[:{]|$)",
+                 "enum"),
+        new Rule("^\\s*typedef\\b.*?\\b([A-Za-z_]\\w*)\\s*;\\s*$", "type"),
+        new Rule("^\\s*using\\s+([A-Za-z_]\\w*)\\s*=", "type"),
+        new Rule("^\\s*@(?:interface|implementation|protocol)\\s+([A-Za-z_]\\w*)", "class"),
+        // Definitions at column 0, with a return type ...
+        new Rule("^[A-Za-z_][\\w\\s*&:<>,]*[\\s*&](?:\\w+::)*(~?[A-Za-z_]\\w*)" + PARAMETERS,
+                 "function"),
+        // ... or out-of-line constructors and destructors.
+        new Rule("^(?:\\w+::)+(~?[A-Za-z_]\\w*)" + PARAMETERS, "function"),
+        new Rule("^[-+]\\s*\\([^)]*\\)\\s*([A-Za-z_]\\w*)", "method"));
+
+    static final String JAVA_MODIFIERS =
+        "(?:(?:public|protected|private|internal|static|final|abstract|sealed|open|data"
+        + "|synchronized|native|override|virtual|async|default|strictfp|partial|inner"
+        + "|readonly|volatile|transient|const)\\s+)";
+
+    static final List<Rule> JAVA_RULES = Arrays.asList(
+        new Rule("^\\s*(?:@\\w+\\s+)*" + JAVA_MODIFIERS + "*"
+                 + "(?:class|interface|enum|@interface|object|trait|record|struct)\\s+([A-Za-z_]\\w*)",
+                 "class"),
+        new Rule("^\\s*(?!(?:return|new|else|throw|await|yield|case|goto)\\b)" + JAVA_MODIFIERS
+                 + "*(?:<[^>]*>\\s*)?[\\w\\[\\]<>,.?]+\\s+([A-Za-z_]\\w*)" + PARAMETERS, "method"),
+        new Rule("^\\s*" + JAVA_MODIFIERS + "+[\\w\\[\\]<>,.?]+\\s+([A-Za-z_]\\w*)\\s*(?:=|;)",
+                 "field"),
+        new Rule("^\\s*(?:\\w+\\s+)*fun\\s+(?:<[^>]*>\\s*)?(?:[\\w.]+\\.)?([A-Za-z_]\\w*)\\s*\\(",
+                 "function"),
+        new Rule("^\\s*(?:\\w+\\s+)*def\\s+([A-Za-z_]\\w*)", "function"));
+
+    static final List<Rule> PYTHON_RULES = Arrays.asList(
+        new Rule("^\\s*(?:async\\s+)?def\\s+([A-Za-z_]\\w*)", "function"),
+        new Rule("^\\s*class\\s+([A-Za-z_]\\w*)", "class"),
+        new Rule("^([A-Za-z_]\\w*)\\s*(?::[^=]*)?=[^=]", "variable"));
+
+    static final List<Rule> JS_RULES = Arrays.asList(
+        new Rule("^\\s*(?:export\\s+)?(?:default\\s+)?(?:async\\s+)?function\\s*\\*?\\s*([A-Za-z_$][\\w$]*)",
+                 "function"),
+        new Rule("^\\s*(?:export\\s+)?(?:default\\s+)?(?:abstract\\s+)?class\\s+([A-Za-z_$][\\w$]*)",
+                 "class"),
+        new Rule("^\\s*(?:export\\s+)?(?:const|let|var)\\s+([A-Za-z_$][\\w$]*)\\s*(?::[^=]*)?="
+                 + "\\s*(?:async\\s+)?(?:function\\b|\\([^)]*\\)\\s*(?::[^=]*)?=>|[A-Za-z_$][\\w$]*\\s*=>)",
+                 "function"),
+        new Rule("^\\s*(?:export\\s+)?(?:declare\\s+)?(?:interface|type|enum)\\s+([A-Za-z_$][\\w$]*)",
+                 "type"),
+        new Rule("^\\s+(?:(?:static|async|get|set|public|private|protected)\\s+)*"
+                 + "([A-Za-z_$][\\w$]*)\\s*\\([^)]*\\)\\s*(?::[^{]*)?\\{\\s*$", "method"));
+
+    static final List<Rule> GO_RULES = Arrays.asList(
+        new Rule("^func\\s+(?:\\([^)]*\\)\\s*)?([A-Za-z_]\\w*)", "function"),
+        new Rule("^\\s*type\\s+([A-Za-z_]\\w*)", "type"));
+
+    static final List<Rule> RUST_RULES = Arrays.asList(
+        new Rule("^\\s*(?:pub(?:\\([^)]*\\))?\\s+)?(?:(?:const|async|unsafe|extern\\s+\"[^\"]*\")\\s+)*"
+                 + "fn\\s+([A-Za-z_]\\w*)", "function"),
+        new Rule("^\\s*(?:pub(?:\\([^)]*\\))?\\s+)?(?:struct|enum|trait|union|type)\\s+([A-Za-z_]\\w*)",
+                 "type"),
+        new Rule("^\\s*macro_rules!\\s*([A-Za-z_]\\w*)", "macro"));
+
+    static final List<Rule> RUBY_RULES = Arrays.asList(
+        new Rule("^\\s*def\\s+(?:self\\.)?([A-Za-z_]\\w*[?!=]?)", "method"),
+        new Rule("^\\s*(?:class|module)\\s+(?:\\w+::)*([A-Za-z_]\\w*)", "class"));
+
+    static final List<Rule> SHELL_RULES = Arrays.asList(
+        new Rule("^\\s*(?:function\\s+)?([A-Za-z_][\\w.-]*)\\s*\\(\\)", "function"),
+        new Rule("^\\s*function\\s+([A-Za-z_][\\w.-]*)", "function"));
+
+    static final List<Rule> LISP_RULES = Arrays.asList(
+        new Rule("^\\s*\\((?:cl-)?def(?:un|macro|subst|generic|method|n-?)\\s+([^\\s()]+)", "function"),
+        new Rule("^\\s*\\(def(?:var|custom|const|face|group|ine-[\\w-]+)?\\s+([^\\s()]+)", "variable"));
+
+    static final List<Rule> IDL_RULES = Arrays.asList(
+        new Rule("^\\s*(?:message|enum|service|interface|struct|union|exception)\\s+([A-Za-z_]\\w*)",
+                 "type"),
+        new Rule("^\\s*rpc\\s+([A-Za-z_]\\w*)", "function"));
+
+    // extension -> rules
+    static final Map<String, List<Rule>> LANGUAGES = new HashMap<String, List<Rule>>();
+    static {
+        register(C_RULES, "c", "h", "cc", "cpp", "cxx", "c++", "hh", "hpp", "hxx", "inl", "ipp",
+                 "m", "mm");
+        register(JAVA_RULES, "java", "kt", "kts", "scala", "groovy", "gradle", "cs", "aidl");
+        register(PYTHON_RULES, "py", "pyi");
+        register(JS_RULES, "js", "jsx", "mjs", "ts", "tsx", "vue");
+        register(GO_RULES, "go");
+        register(RUST_RULES, "rs");
+        register(RUBY_RULES, "rb");
+        register(SHELL_RULES, "sh", "bash", "zsh");
+        register(LISP_RULES, "el", "lisp", "clj", "scm");
+        register(IDL_RULES, "proto", "idl", "mojom", "thrift", "fbs");
+    }
+
+    private static void register(List<Rule> rules, String... extensions) {
+        for (String extension : extensions) {
+            LANGUAGES.put(extension, rules);
+        }
+    }
+
+    private SymbolScanner() {}
+
+    /** The definitions in text, the contents of file; none for unknown languages. */
+    public static List<Symbol> scan(Path file, String text) {
+        List<Rule> rules = rulesFor(file);
+        if (rules == null) {
+            return Collections.<Symbol>emptyList();
+        }
+        return scan(rules, text);
+    }
+
+    /**
+     * The same from the UTF-8 bytes of file, for files too large to
+     * decode at once: only lines short enough to scan are decoded.
+     */
+    public static List<Symbol> scan(Path file, ByteBuffer bytes) {
+        List<Rule> rules = rulesFor(file);
+        if (rules == null) {
+            return Collections.<Symbol>emptyList();
+        }
+        List<Symbol> symbols = new ArrayList<Symbol>();
+        Matcher[] matchers = matchers(rules);
+        int lineNumber = 0;
+        int start = bytes.position();
+        int length = bytes.limit();
+        while (start < length) {
+            int end = FileBytes.endOfLine(bytes, start, length);
+            lineNumber++;
+            // at most 3 bytes per char, longer ones have too many chars
+            if (end - start <= 3 * MAX_LINE_LENGTH) {
+                String line = FileBytes.decode(bytes, start, end);
+                scanLine(rules, matchers, line, 0, line.length(), lineNumber, symbols);
+            }
+            start = end + 1;
+        }
+        return symbols;
+    }
+
+    private static List<Rule> rulesFor(Path file) {
+        String extension = FileClassifier.extensionOf(file);
+        return extension == null ? null : LANGUAGES.get(extension);
+    }
+
+    private static Matcher[] matchers(List<Rule> rules) {
+        Matcher[] matchers = new Matcher[rules.size()];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = rules.get(i).pattern.matcher("");
+        }
+        return matchers;
+    }
+
+    static List<Symbol> scan(List<Rule> rules, String text) {
+        List<Symbol> symbols = new ArrayList<Symbol>();
+        Matcher[] matchers = matchers(rules);
+        int lineNumber = 0;
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = length;
+            }
+            lineNumber++;
+            scanLine(rules, matchers, text, start, end, lineNumber, symbols);
+            start = end + 1;
+        }
+        return symbols;
+    }
+
+    /** The definition on the line of text from start to end, its '\n'. */
+    private static void scanLine(List<Rule> rules, Matcher[] matchers, String text, int start,
+                                 int end, int lineNumber, List<Symbol> symbols) {
+        int textEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+        if (textEnd - start > MAX_LINE_LENGTH || isBlank(text, start, textEnd)) {
+            return;
+        }
+        CharSequence line = text.subSequence(start, textEnd);
+        for (int i = 0; i < matchers.length; i++) {
+            Matcher m = matchers[i].reset(line);
+            if (m.find() && !KEYWORDS.contains(m.group(1))) {
+                symbols.add(new Symbol(m.group(1), lineNumber, rules.get(i).kind, trim(line)));
+                // first rule wins, one definition per line
+                return;
+            }
+        }
+    }
+
+    private static boolean isBlank(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String trim(CharSequence line) {
+        String text = line.toString().trim();
+        return text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text;
+    }
+
+    /**
+     * The name -def looks up for query: qualified names ("Foo::bar",
+     * "foo.bar", "p->bar") are found by their last component.
+     */
+    public static String simpleName(String query) {
+        Matcher m = CodeAnalyzer.QUALIFIER.matcher(query);
+        int start = 0;
+        while (m.find()) {
+            start = m.end();
+        }
+        return query.substring(start).trim();
+    }
+
+    /** One "name TAB line TAB kind TAB text" line per symbol. */
+    public static String encode(List<Symbol> symbols) {
+        StringBuilder sb = new StringBuilder();
+        for (Symbol symbol : symbols) {
+            sb.append(symbol.name).append('\t').append(symbol.line).append('\t')
+                .append(symbol.kind).append('\t').append(symbol.text).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static List<Symbol> decode(String encoded) {
+        List<Symbol> symbols = new ArrayList<Symbol>();
+        if (encoded == null) {
+            return symbols;
+        }
+        for (String entry : encoded.split("\n")) {
+            String[] parts = entry.split("\t", 4);
+            if (parts.length == 4) {
+                symbols.add(new Symbol(parts[0], Integer.parseInt(parts[1]), parts[2], parts[3]));
+            }
+        }
+        return symbols;
+    }
+}
@@ -0,0 +1,73 @@
+package org.lightgrok;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.ngram.NGramTokenizer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Splits text into every overlapping, lowercased run of three chars,
+ * whitespace and punctuation included, the way codesearch and zoekt
+ * index source.
+ *
+ * Any substring of a document of at least three chars has all of its
+ * own trigrams in the document, so intersecting their postings gives a
+ * small candidate set without touching the term dictionary the way a
+ * leading wildcard does.  Candidates still have to be verified.
+ */
+public class TrigramAnalyzer extends Analyzer {
+    public static final String FIELD = "trigrams";
+
+    // Past this many the intersection hardly gets any smaller.
+    static final int MAX_QUERY_GRAMS = 64;
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer source = new NGramTokenizer(3, 3);
+        TokenStream result = new LowerCaseFilter(source);
+        return new TokenStreamComponents(source, result);
+    }
+
+    /**
+     * Distinct lowercased trigrams of s, counted in code points like
+     * NGramTokenizer does.
+     */
+    public static Set<String> trigrams(String s) {
+        Set<String> grams = new LinkedHashSet<String>();
+        int[] codePoints = s.codePoints().map(Character::toLowerCase).toArray();
+        for (int i = 0; i + 3 <= codePoints.length; i++) {
+            grams.add(new String(codePoints, i, 3));
+        }
+        return grams;
+    }
+
+    /**
+     * Query for documents which may contain substring, or null when it
+     * is too short to have a trigram.
+     */
+    public static Query substringQuery(String substring) {
+        Set<String> grams = trigrams(substring);
+        if (grams.isEmpty()) {
+            return null;
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        int count = 0;
+        for (String gram : grams) {
+            if (count++ == MAX_QUERY_GRAMS) {
+                break;
+            }
+            builder.add(new TermQuery(new Term(FIELD, gram)), BooleanClause.Occur.FILTER);
+        }
+        return new ConstantScoreQuery(builder.build());
+    }
+}
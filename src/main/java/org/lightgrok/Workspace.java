@@ -0,0 +1,199 @@
+package org.lightgrok;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Searches several roots at once, e.g. an app, its SDK and a few forks.
+ *
+ * Every root gets its own Searcher, configured by the caller, and all of
+ * them run concurrently, sharing one pool for segment search and hit
+ * verification.  Output is printed root by root in sorted root order,
+ * each as soon as it and the ones before it are done, so it is the same
+ * from run to run.  Lines carry their absolute paths, or with
+ * -strip-root-lead paths below the common parent of the roots, which
+ * start with the root's name either way.
+ */
+public class Workspace {
+    /** Sets the options of the searcher of one root. */
+    public interface Configurer {
+        void configure(Searcher searcher, String root) throws IOException;
+    }
+
+    private final List<String> mRoots;
+    // lines of a root list that named no indexed root
+    private final List<String> mSkipped = new ArrayList<String>();
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService mExecutor = null;
+    private boolean mStripRootLead = false;
+    private Logger mLogger = Logger.getLogger("lightgrok");
+
+    /** All indexed roots, see PathProvider.indexedRoots. */
+    public static Workspace createWorkspace() throws IOException {
+        return createWorkspaceWithRoots(PathProvider.indexedRoots());
+    }
+
+    /**
+     * The roots listed in file, one per line; # starts a comment.  Only
+     * indexed roots are searched, a line naming anything else is
+     * reported by its number, not its text.
+     */
+    public static Workspace createWorkspaceFromFile(String file) throws IOException {
+        Set<String> indexed = new HashSet<String>(PathProvider.indexedRoots());
+        List<String> roots = new ArrayList<String>();
+        List<String> skipped = new ArrayList<String>();
+        int number = 0;
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String root = Paths.get(line).toString();
+            if (indexed.contains(root)) {
+                roots.add(root);
+            } else {
+                skipped.add(file + ":" + number);
+            }
+        }
+        Workspace n = createWorkspaceWithRoots(roots);
+        n.mSkipped.addAll(skipped);
+        return n;
+    }
+
+    public static Workspace createWorkspaceWithRoots(List<String> roots) {
+        List<String> sorted = new ArrayList<String>(roots);
+        Collections.sort(sorted);
+        Workspace n = new Workspace(sorted);
+        n.mLogger.setLevel(Level.ERROR);
+        return n;
+    }
+
+    private Workspace(List<String> roots) {
+        mRoots = roots;
+    }
+
+    public List<String> roots() {
+        return mRoots;
+    }
+
+    public void setThreads(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    /** A shared pool for segment search and verification, e.g. the daemon's. */
+    public void setExecutor(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    public void setStripRootLead(boolean enabled) {
+        mStripRootLead = enabled;
+    }
+
+    /** The directory all roots are in, with a trailing separator. */
+    static String commonParent(List<String> roots) {
+        Path common = null;
+        for (String root : roots) {
+            Path parent = Paths.get(root).getParent();
+            if (common == null) {
+                common = parent;
+            }
+            while (common != null && parent != null && !parent.startsWith(common)) {
+                common = common.getParent();
+            }
+            if (common == null || parent == null) {
+                return "/";
+            }
+        }
+        return common == null || common.getParent() == null ? "/" : common + "/";
+    }
+
+    public void doSearch(final String search, final Configurer configurer, PrintStream out)
+        throws IOException {
+        for (String skipped : mSkipped) {
+            out.println("lightgrok: " + skipped + ": not an indexed root");
+        }
+        if (mRoots.isEmpty()) {
+            out.println("no indexed roots");
+            return;
+        }
+        boolean ownExecutor = mExecutor == null && mThreads > 1;
+        final ExecutorService executor =
+            ownExecutor ? Executors.newFixedThreadPool(mThreads) : mExecutor;
+        // Separate from the searchers' pool, whose tasks these wait for.
+        ExecutorService roots = Executors.newFixedThreadPool(Math.min(mRoots.size(), mThreads));
+        final String reportRoot = commonParent(mRoots);
+        try {
+            List<Future<ByteArrayOutputStream>> results =
+                new ArrayList<Future<ByteArrayOutputStream>>();
+            for (final String root : mRoots) {
+                results.add(roots.submit(new Callable<ByteArrayOutputStream>() {
+                        @Override
+                        public ByteArrayOutputStream call() {
+                            return searchRoot(root, search, configurer, executor, reportRoot);
+                        }
+                    }));
+            }
+            for (Future<ByteArrayOutputStream> result : results) {
+                result.get().writeTo(out);
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while searching the workspace");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            roots.shutdownNow();
+            if (ownExecutor) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    ByteArrayOutputStream searchRoot(String root, String search, Configurer configurer,
+                                     ExecutorService executor, String reportRoot) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out;
+        try {
+            out = new PrintStream(buffer, false, "UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        try {
+            Searcher searcher = Searcher.createSearcherWithRoot(root);
+            searcher.setThreads(mThreads);
+            searcher.setExecutor(executor);
+            searcher.setStripRootLead(mStripRootLead);
+            configurer.configure(searcher, root);
+            searcher.setOutput(out);
+            searcher.setReportRoot(reportRoot);
+            searcher.doSearch(search);
+        } catch (Exception e) {
+            // one broken index shouldn't hide the others' results
+            mLogger.info("searching " + root + " failed: " + e);
+            out.println("lightgrok: " + root + ": " + e);
+        }
+        out.flush();
+        return buffer;
+    }
+}
@@ -0,0 +1,63 @@
+package org.lightgrok;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CodeAnalyzerTest {
+    @Test public void testIdentifierParts() throws Exception {
+        String text = "x = Foo::parseHTTPHeader_v2(y);";
+        List<String> terms = new ArrayList<String>();
+        try (TokenStream ts = new CodeAnalyzer().tokenStream("contents", text)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offset = ts.addAttribute(OffsetAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                terms.add(term.toString());
+                // every part points back at its own text
+                assertEquals(term.toString(),
+                             text.substring(offset.startOffset(), offset.endOffset()).toLowerCase());
+            }
+            ts.end();
+        }
+
+        assertEquals(Arrays.asList(
+            "x", "foo::parsehttpheader_v2", "foo", "parsehttpheader_v2",
+            "parse", "http", "header", "v2", "y"), terms);
+    }
+
+    @Test public void testLongQualifiedName() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() <= CodeAnalyzer.MAX_TOKEN_LENGTH) {
+            text.append("part.");
+        }
+        text.append("zorblaxHelper()");
+        List<String> terms = new ArrayList<String>();
+        try (TokenStream ts = new CodeAnalyzer().tokenStream("contents", text.toString())) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                terms.add(term.toString());
+            }
+            ts.end();
+        }
+
+        // the whole name is too long, its parts are not
+        assertEquals(CodeAnalyzer.LONG_TOKEN, terms.get(0));
+        assertEquals(Arrays.asList("part", "zorblaxhelper", "zorblax", "helper"),
+                     terms.subList(terms.size() - 4, terms.size()));
+    }
+
+    @Test public void testIdentifierQuery() {
+        assertTrue(CodeAnalyzer.isIdentifierQuery("parse_HTTP$2"));
+        assertFalse(CodeAnalyzer.isIdentifierQuery("Foo::bar"));
+        assertFalse(CodeAnalyzer.isIdentifierQuery("a b"));
+        assertFalse(CodeAnalyzer.isIdentifierQuery(""));
+    }
+}
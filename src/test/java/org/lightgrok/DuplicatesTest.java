@@ -0,0 +1,96 @@
+package org.lightgrok;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DuplicatesTest {
+    @Test public void testDigest() {
+        byte[] content = "int main() {}\n".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content).flip();
+        assertEquals(Duplicates.digest(ByteBuffer.wrap(content)), Duplicates.digest(direct));
+        assertNotEquals(Duplicates.digest(ByteBuffer.wrap(content)),
+                        Duplicates.digest(ByteBuffer.wrap("int main;\n".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    static void write(Path file, String text) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void index(Path root, boolean incremental) {
+        Indexer indexer = Indexer.createIndexerWithRoot(root.toString());
+        indexer.setIncremental(incremental);
+        indexer.setThreads(2);
+        indexer.doIndex();
+    }
+
+    /** The canonical paths of the documents defining symbol. */
+    static List<String> canonicals(IndexReader reader, String symbol) throws Exception {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        List<String> paths = new ArrayList<String>();
+        for (ScoreDoc hit : searcher.search(new TermQuery(new Term(SymbolScanner.FIELD, symbol)),
+                                            10).scoreDocs) {
+            paths.add(searcher.doc(hit.doc).get("path"));
+        }
+        return paths;
+    }
+
+    @Test public void testAliases() throws Exception {
+        Path base = Files.createTempDirectory("duplicates");
+        Path root = base.resolve("src");
+        Path previous = PathProvider.rootIndexDirectory();
+        PathProvider.setRootIndexDirectory(base.resolve("index"));
+        try {
+            String copy = "int vendored() {\n  return 1;\n}\n";
+            for (String dir : new String[] { "a", "b", "c" }) {
+                write(root.resolve(dir).resolve("v.c"), copy);
+            }
+            write(root.resolve("own.c"), "int own() {\n  return 2;\n}\n");
+            index(root, false);
+
+            Path indexDir = PathProvider.indexDirectory(root.toString());
+            String canonical;
+            try (IndexReader reader = IndexShards.openReader(indexDir)) {
+                assertEquals(4, reader.numDocs());
+                List<String> paths = canonicals(reader, "vendored");
+                // analyzed once, the other two are aliases of it
+                assertEquals(1, paths.size());
+                canonical = paths.get(0);
+                IndexSearcher searcher = new IndexSearcher(reader);
+                int doc = searcher.search(new TermQuery(new Term("path", canonical)), 1)
+                    .scoreDocs[0].doc;
+                assertFalse(Duplicates.isAlias(reader, doc));
+                assertEquals(2, Duplicates.aliasesOf(reader, doc, canonical).size());
+                assertTrue(Duplicates.orphans(reader).isEmpty());
+            }
+
+            // the canonical copy goes away, one of the others takes over
+            Files.delete(root.resolve(canonical));
+            index(root, true);
+            try (IndexReader reader = IndexShards.openReader(indexDir)) {
+                assertEquals(3, reader.numDocs());
+                List<String> paths = canonicals(reader, "vendored");
+                assertEquals(1, paths.size());
+                assertNotEquals(canonical, paths.get(0));
+                assertTrue(Duplicates.orphans(reader).isEmpty());
+            }
+        } finally {
+            PathProvider.setRootIndexDirectory(previous);
+            IndexShards.clear(base);
+            Files.delete(base);
+        }
+    }
+}
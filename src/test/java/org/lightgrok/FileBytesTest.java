@@ -0,0 +1,138 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.google.common.io.CharStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FileBytesTest {
+    private Path mDir;
+
+    @Before public void setUp() throws Exception {
+        mDir = Files.createTempDirectory("filebytes");
+    }
+
+    @After public void tearDown() throws Exception {
+        TempRoot.delete(mDir);
+    }
+
+    static byte[] lines(int size) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) 'x');
+        for (int i = 63; i < size; i += 64) {
+            bytes[i] = '\n';
+        }
+        return bytes;
+    }
+
+    @Test public void testSmallFile() throws Exception {
+        Path small = mDir.resolve("small.c");
+        Files.write(small, "int main() {}\n".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer first = FileBytes.read(small);
+        assertTrue(first.hasArray());
+        assertEquals("int main() {}\n", FileBytes.decode(first));
+        FileBytes.release(first);
+
+        // the next read of the thread reuses the scratch array
+        Path other = mDir.resolve("other.c");
+        Files.write(other, "x\n".getBytes(StandardCharsets.UTF_8));
+        ByteBuffer second = FileBytes.read(other);
+        assertSame(first.array(), second.array());
+        assertEquals("x\n", FileBytes.decode(second));
+    }
+
+    @Test public void testMappedFile() throws Exception {
+        Path large = mDir.resolve("large.txt");
+        byte[] content = lines(FileBytes.MAP_THRESHOLD + 100);
+        Files.write(large, content);
+        ByteBuffer mapped = FileBytes.read(large);
+        try {
+            assertTrue(mapped instanceof MappedByteBuffer);
+            assertEquals(content.length, mapped.remaining());
+            assertEquals('\n', mapped.get(FileBytes.MAP_THRESHOLD - 1));
+            assertEquals(127, FileBytes.endOfLine(mapped, 64, mapped.limit()));
+        } finally {
+            FileBytes.release(mapped);
+        }
+        // unmapped, the file can go
+        Files.delete(large);
+    }
+
+    @Test public void testTooLarge() throws Exception {
+        // sparse, it takes no space
+        Path huge = mDir.resolve("huge.txt");
+        try (FileChannel channel = FileChannel.open(huge, StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 'x' }), FileBytes.MAX_SIZE);
+        }
+        try {
+            FileBytes.read(huge);
+            fail("mapped " + Files.size(huge) + " bytes");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("too large"));
+        }
+    }
+
+    @Test public void testReader() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < FileBytes.MAP_THRESHOLD) {
+            text.append("na\u00efve \u4e2d \ud83d\ude00 line\n");
+        }
+        Path large = mDir.resolve("large.txt");
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        // a broken sequence at the end is replaced like decode() does
+        bytes[bytes.length - 2] = (byte) 0xe4;
+        Files.write(large, bytes);
+        ByteBuffer mapped = FileBytes.read(large);
+        try (Reader reader = FileBytes.reader(mapped)) {
+            assertEquals(FileBytes.decode(mapped), CharStreams.toString(reader));
+            assertEquals(0, mapped.position());
+        } finally {
+            FileBytes.release(mapped);
+        }
+    }
+
+    @Test public void testRead() throws Exception {
+        Path file = mDir.resolve("a.txt");
+        Files.write(file, "one\ntwo\nthree\n".getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals("two", FileBytes.decode(FileBytes.read(channel, 4, 3)));
+        }
+        ByteBuffer content = FileBytes.read(file);
+        assertEquals(8, FileBytes.indexOfIgnoreAsciiCase(content, 0, content.limit(),
+                                                         FileBytes.lowerAscii("THREE")));
+        assertEquals(-1, FileBytes.indexOfIgnoreAsciiCase(content, 0, content.limit(),
+                                                          FileBytes.lowerAscii("four")));
+    }
+
+    @Test public void testTruncated() throws Exception {
+        Path large = mDir.resolve("large.txt");
+        Files.write(large, lines(FileBytes.MAP_THRESHOLD + 100));
+        ByteBuffer mapped = FileBytes.read(large);
+        try (FileChannel channel = FileChannel.open(large, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+        }
+        try {
+            FileBytes.endOfLine(mapped, 0, mapped.limit());
+            fail("read past the end of a truncated file");
+        } catch (InternalError e) {
+            IOException truncated = FileBytes.truncated(large, e);
+            assertSame(e, truncated.getCause());
+        } finally {
+            FileBytes.release(mapped);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.lightgrok;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FileClassifierTest {
+    private Path mDir;
+
+    @Before public void setUp() throws Exception {
+        mDir = Files.createTempDirectory("classifier");
+    }
+
+    @After public void tearDown() throws Exception {
+        TempRoot.delete(mDir);
+    }
+
+    Path write(String name, byte[] content) throws Exception {
+        Path file = mDir.resolve(name);
+        Files.write(file, content);
+        return file;
+    }
+
+    static byte[] text(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test public void testExtensionOf() {
+        assertEquals("cpp", FileClassifier.extensionOf(Paths.get("/src/a.CPP")));
+        assertEquals("gz", FileClassifier.extensionOf(Paths.get("a.tar.gz")));
+        assertNull(FileClassifier.extensionOf(Paths.get("/src/Makefile")));
+        assertNull(FileClassifier.extensionOf(Paths.get("/src/.bashrc")));
+        assertNull(FileClassifier.extensionOf(Paths.get("/src/a.")));
+    }
+
+    @Test public void testKnownExtensions() throws Exception {
+        FileClassifier classifier = new FileClassifier();
+        // the table decides, the content isn't looked at
+        assertTrue(classifier.isText(write("a.c", new byte[] { 0, 1, 2 })));
+        assertFalse(classifier.isText(write("a.png", text("not a png"))));
+    }
+
+    @Test public void testSniffing() throws Exception {
+        FileClassifier classifier = new FileClassifier();
+        assertTrue(classifier.isText(write("Makefile", text("all:\n\tcc a.c\n"))));
+        assertFalse(classifier.isText(write("blob", new byte[] { 'E', 'L', 'F', 0, 1 })));
+
+        // the first file of an unknown extension decides for the others
+        assertFalse(classifier.isText(write("a.xyz", new byte[] { 1, 0, 2 })));
+        assertFalse(classifier.isText(write("b.xyz", text("text after all"))));
+        assertTrue(classifier.isText(write("a.abc", text("text"))));
+
+        // a NUL past the sniffed bytes doesn't count
+        byte[] late = new byte[FileClassifier.SNIFF_BYTES + 10];
+        Arrays.fill(late, (byte) 'x');
+        late[late.length - 1] = 0;
+        assertTrue(classifier.isText(write("late", late)));
+    }
+
+    @Test public void testHasNul() {
+        assertTrue(FileClassifier.hasNul(new byte[] { 'a', 0 }, 2));
+        assertFalse(FileClassifier.hasNul(text("int a;\n"), 7));
+        // only length bytes count
+        assertFalse(FileClassifier.hasNul(new byte[] { 'a', 'b', 0 }, 2));
+
+        assertTrue(FileClassifier.hasNul(ByteBuffer.wrap(new byte[] { 'a', 0 })));
+        assertFalse(FileClassifier.hasNul(ByteBuffer.wrap(text("int a;\n"))));
+        ByteBuffer direct = ByteBuffer.allocateDirect(4);
+        direct.put(new byte[] { 'a', 'b', 0, 'c' }).flip();
+        assertTrue(FileClassifier.hasNul(direct));
+    }
+}
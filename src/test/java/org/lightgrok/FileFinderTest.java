@@ -0,0 +1,81 @@
+package org.lightgrok;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FileFinderTest {
+    static List<String> find(DirectoryReader reader, String query, int limit) throws Exception {
+        List<String> paths = new ArrayList<String>();
+        for (FileFinder.Match match : FileFinder.find(reader, "/src", query, limit)) {
+            paths.add(match.path);
+        }
+        return paths;
+    }
+
+    @Test public void testScore() {
+        String path = "core/rendering/RenderBlock.cpp";
+        assertTrue(FileFinder.score("renderblock.cpp", path) > FileFinder.score("block", path));
+        assertTrue(FileFinder.score("block", path) > FileFinder.score("rendering/r", path));
+        assertTrue(FileFinder.score("rendering/r", path) > FileFinder.score("rndblk", path));
+        assertTrue(FileFinder.score("rndblk", path) > 0);
+        assertEquals(-1, FileFinder.score("xyz", path));
+
+        // word starts beat the same characters scattered
+        assertTrue(FileFinder.score("rb", "RenderBlock.cpp") > FileFinder.score("rb", "xrxbx.cpp"));
+        assertTrue(FileFinder.isBoundary("RenderBlock", 6));
+        assertFalse(FileFinder.isBoundary("RenderBlock", 7));
+    }
+
+    @Test public void testIsSubsequence() {
+        byte[] needle = "rblk".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(FileFinder.isSubsequence(needle, new BytesRef("/src/RenderBlock.cpp"), 0));
+        assertFalse(FileFinder.isSubsequence(needle, new BytesRef("/src/Render.cpp"), 0));
+        // the root isn't part of the match
+        assertFalse(FileFinder.isSubsequence("s".getBytes(StandardCharsets.US_ASCII),
+                                             new BytesRef("/src/a.c"), 4));
+    }
+
+    @Test public void testFind() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new KeywordAnalyzer()))) {
+            for (String path : new String[] { "/src/core/rendering/RenderBlock.cpp",
+                                              "/src/core/rendering/RenderBlock.h",
+                                              "/src/core/rendering/RenderBox.cpp",
+                                              "/src/base/block_list.cc",
+                                              "/src/README" }) {
+                Document doc = new Document();
+                doc.add(new StringField("path", path, Field.Store.YES));
+                writer.addDocument(doc);
+            }
+            writer.commit();
+            // deleted paths are not found
+            writer.deleteDocuments(new Term("path", "/src/core/rendering/RenderBlock.h"));
+        }
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            List<String> found = find(reader, "renderblock", 10);
+            assertEquals(1, found.size());
+            assertEquals("/src/core/rendering/RenderBlock.cpp", found.get(0));
+
+            found = find(reader, "rndblk", 10);
+            assertEquals("/src/core/rendering/RenderBlock.cpp", found.get(0));
+
+            assertEquals(2, find(reader, "rbo", 10).size());
+            assertEquals(1, find(reader, "block", 1).size());
+            assertTrue(find(reader, "src", 10).isEmpty());
+        }
+    }
+}
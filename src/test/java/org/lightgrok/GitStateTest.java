@@ -0,0 +1,186 @@
+package org.lightgrok;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GitStateTest {
+    static final String HEAD = "0123456789abcdef0123456789abcdef01234567";
+
+    /** A version 2 git index of the regular files path -> sha. */
+    static byte[] index(Map<String, String> entries) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x44495243);
+        out.writeInt(2);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            int start = out.size();
+            // ctime, mtime, dev, ino
+            out.write(new byte[24]);
+            out.writeInt(GitState.MODE_FILE | 0644);
+            // uid, gid, size
+            out.write(new byte[12]);
+            for (int i = 0; i < 40; i += 2) {
+                out.writeByte(Integer.parseInt(entry.getValue().substring(i, i + 2), 16));
+            }
+            byte[] path = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeShort(path.length);
+            out.write(path);
+            do {
+                out.writeByte(0);
+            } while ((out.size() - start) % 8 != 0);
+        }
+        // the trailing checksum isn't looked at
+        out.write(new byte[20]);
+        return bytes.toByteArray();
+    }
+
+    static String sha(char c) {
+        StringBuilder sha = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sha.append(c);
+        }
+        return sha.toString();
+    }
+
+    static void writeRepo(Path top, Map<String, String> entries) throws Exception {
+        Path git = top.resolve(".git");
+        Files.createDirectories(git.resolve("refs/heads"));
+        Files.write(git.resolve("HEAD"), "ref: refs/heads/main\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(git.resolve("refs/heads/main"), (HEAD + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(git.resolve("index"), index(entries));
+    }
+
+    @Test public void testRead() throws Exception {
+        Path top = Files.createTempDirectory("gitstate");
+        try {
+            Map<String, String> entries = new HashMap<String, String>();
+            entries.put("README", sha('a'));
+            entries.put("src/a.c", sha('b'));
+            entries.put("src/sub/b.c", sha('c'));
+            writeRepo(top, entries);
+            Files.createDirectories(top.resolve("src"));
+
+            GitState state = GitState.read(top);
+            assertEquals(HEAD, state.head());
+            assertEquals(entries, state.blobs());
+
+            // a root below the top of the work tree sees its own files
+            state = GitState.read(top.resolve("src"));
+            assertEquals(2, state.blobs().size());
+            assertEquals(sha('c'), state.blobs().get("sub/b.c"));
+
+            // packed refs once the loose one is gone
+            Files.delete(top.resolve(".git/refs/heads/main"));
+            Files.write(top.resolve(".git/packed-refs"),
+                        ("# pack-refs with: peeled\n" + sha('d') + " refs/heads/main\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            assertEquals(sha('d'), GitState.readHead(top.resolve(".git")));
+        } finally {
+            IndexShards.clear(top);
+            Files.delete(top);
+        }
+    }
+
+    @Test public void testSaveLoad() throws Exception {
+        Path dir = Files.createTempDirectory("gitstate");
+        try {
+            Map<String, String> blobs = new HashMap<String, String>();
+            blobs.put("a.c", sha('e'));
+            Map<String, Indexer.Stamp> ignoreFiles = new HashMap<String, Indexer.Stamp>();
+            ignoreFiles.put("/src/.gitignore", new Indexer.Stamp(42, 7));
+            Set<String> dirs = new HashSet<String>(Arrays.asList("/src", "/src/lib"));
+            new GitState(HEAD, blobs).save(dir, 1000, "out/", ignoreFiles, dirs);
+
+            GitState state = GitState.load(dir);
+            assertEquals(HEAD, state.head());
+            assertEquals(blobs, state.blobs());
+            assertEquals(1000, state.mStarted);
+            assertEquals("out/", state.mIgnoreKey);
+            assertTrue(state.mIgnoreFiles.get("/src/.gitignore").matches(42, 7));
+            assertEquals(dirs, state.mDirs);
+
+            assertNull(GitState.load(dir.resolve("missing")));
+        } finally {
+            IndexShards.clear(dir);
+            Files.delete(dir);
+        }
+    }
+
+    @Test public void testIncremental() throws Exception {
+        try (TempRoot tree = new TempRoot("gitstate")) {
+            Map<String, String> entries = new HashMap<String, String>();
+            entries.put("a.c", sha('1'));
+            entries.put("lib/b.c", sha('2'));
+            tree.write("a.c", "int alpha() {}\n");
+            tree.write("lib/b.c", "int beta() {}\n");
+            writeRepo(tree.root(), entries);
+            tree.index(false);
+            assertNotNull(GitState.load(tree.indexDirectory()));
+
+            // a checkout: new blob, same size and mtime, so only git can tell
+            Path a = tree.resolve("a.c");
+            long modified = Files.getLastModifiedTime(a).toMillis();
+            tree.write("a.c", "int gamma() {}\n");
+            Files.setLastModifiedTime(a, FileTime.fromMillis(modified));
+            entries.put("a.c", sha('3'));
+            writeRepo(tree.root(), entries);
+            // and an untracked file in a new directory
+            tree.write("lib/new/c.c", "int delta() {}\n");
+            Files.delete(tree.resolve("lib/b.c"));
+            tree.index(true);
+
+            try (IndexReader reader = tree.openReader()) {
+                assertEquals(new HashSet<String>(Arrays.asList("a.c", "lib/new/c.c")),
+                             tree.indexed(reader));
+                assertEquals(2, reader.numDocs());
+                assertEquals(0, TempRoot.count(reader, "alpha"));
+                assertEquals(1, TempRoot.count(reader, "gamma"));
+            }
+        }
+    }
+
+    @Test public void testUntrackedDirectory() throws Exception {
+        try (TempRoot tree = new TempRoot("gitstate")) {
+            Map<String, String> entries = new HashMap<String, String>();
+            entries.put("a.c", sha('1'));
+            tree.write("a.c", "int alpha() {}\n");
+            // untracked, and nothing in it is indexed
+            Files.createDirectories(tree.resolve("u"));
+            Files.write(tree.resolve("u/blob.bin"), new byte[] { 0, 1, 2, 0 });
+            writeRepo(tree.root(), entries);
+            // as if set up a while ago, outside the mtime slack
+            FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+            Files.setLastModifiedTime(tree.root(), old);
+            Files.setLastModifiedTime(tree.resolve("u"), old);
+            tree.index(false);
+
+            tree.write("u/new.c", "int omega() {}\n");
+            tree.index(true);
+            try (IndexReader reader = tree.openReader()) {
+                assertEquals(new HashSet<String>(Arrays.asList("a.c", "u/new.c")),
+                             tree.indexed(reader));
+            }
+            // and still the next time, without a walk in between
+            tree.write("u/newer.c", "int psi() {}\n");
+            tree.index(true);
+            try (IndexReader reader = tree.openReader()) {
+                assertEquals(new HashSet<String>(Arrays.asList("a.c", "u/new.c", "u/newer.c")),
+                             tree.indexed(reader));
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.lightgrok;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IgnoreRulesTest {
+    @Test public void testGitignoreSyntax() {
+        IgnoreRules rules = IgnoreRules.compile(Arrays.asList(
+            "# comment", "", "*.o", "/build", "out/", "docs/**/*.png", "a/**"));
+
+        assertEquals(Boolean.TRUE, rules.match("x.o", false));
+        assertEquals(Boolean.TRUE, rules.match("src/deep/x.o", false));
+        assertEquals(Boolean.TRUE, rules.match("build", true));
+        assertNull(rules.match("src/build", true));
+        assertEquals(Boolean.TRUE, rules.match("src/out", true));
+        assertNull("directory only", rules.match("src/out", false));
+        assertEquals(Boolean.TRUE, rules.match("docs/x.png", false));
+        assertEquals(Boolean.TRUE, rules.match("docs/a/b/x.png", false));
+        assertEquals(Boolean.TRUE, rules.match("a/b/c", false));
+        assertNull(rules.match("x.c", false));
+        assertNull(rules.match("x.oo", false));
+    }
+
+    @Test public void testLastMatchWins() {
+        IgnoreRules rules = IgnoreRules.compile(Arrays.asList(
+            "gen/*", "!gen/keep.txt", "gen/keep.txt.bak"));
+
+        assertEquals(Boolean.TRUE, rules.match("gen/x.txt", false));
+        assertEquals(Boolean.FALSE, rules.match("gen/keep.txt", false));
+        assertEquals(Boolean.TRUE, rules.match("gen/keep.txt.bak", false));
+    }
+
+    @Test public void testCharacterClasses() {
+        IgnoreRules rules = IgnoreRules.compile(Arrays.asList("*.[oa]", "file[!0-9]"));
+
+        assertEquals(Boolean.TRUE, rules.match("lib.a", false));
+        assertNull(rules.match("lib.c", false));
+        assertEquals(Boolean.TRUE, rules.match("filex", false));
+        assertNull(rules.match("file1", false));
+    }
+}
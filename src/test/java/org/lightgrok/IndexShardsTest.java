@@ -0,0 +1,43 @@
+package org.lightgrok;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IndexShardsTest {
+    @Test public void testShardOf() {
+        Path root = Paths.get("/src/chromium");
+        int shard = IndexShards.shardOf(root, root.resolve("base/files/file.cc"), 8);
+        assertTrue(shard >= 0 && shard < 8);
+        // a subtree stays together
+        assertEquals(shard, IndexShards.shardOf(root, root.resolve("base/logging.h"), 8));
+        assertEquals(shard, IndexShards.shardOf(root, root.resolve("base"), 8));
+        assertEquals(0, IndexShards.shardOf(root, root.resolve("base/logging.h"), 1));
+        assertEquals(0, IndexShards.shardOf(root, root, 8));
+    }
+
+    @Test public void testLayout() throws Exception {
+        Path indexDir = Files.createTempDirectory("shards");
+        try {
+            assertEquals(1, IndexShards.countShards(indexDir));
+            assertEquals(Arrays.asList(indexDir), IndexShards.directories(indexDir));
+            for (Path dir : IndexShards.directories(indexDir, 3)) {
+                Files.createDirectories(dir);
+                Files.createFile(dir.resolve("segments_1"));
+            }
+            assertEquals(3, IndexShards.countShards(indexDir));
+            assertEquals(indexDir.resolve("shard-2"), IndexShards.directories(indexDir).get(2));
+
+            IndexShards.clear(indexDir);
+            assertTrue(Files.isDirectory(indexDir));
+            assertEquals(1, IndexShards.countShards(indexDir));
+        } finally {
+            IndexShards.clear(indexDir);
+            Files.delete(indexDir);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.lightgrok;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IndexWatcherTest {
+    static final long TIMEOUT_MILLIS = 20000;
+
+    /** Wait until the committed index has exactly paths. */
+    static void awaitIndexed(TempRoot tree, String... paths) throws Exception {
+        Set<String> expected = new HashSet<String>(Arrays.asList(paths));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try (IndexReader reader = tree.openReader()) {
+                if (tree.indexed(reader).equals(expected)) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not committed yet
+            }
+            assertTrue("not indexed in time: " + expected, System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+    }
+
+    @Test public void testWatch() throws Exception {
+        try (TempRoot tree = new TempRoot("watcher")) {
+            final IndexWatcher watcher = IndexWatcher.createWatcherWithRoot(tree.root().toString());
+            final Throwable[] failure = new Throwable[1];
+            Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            watcher.doWatch();
+                        } catch (Throwable t) {
+                            failure[0] = t;
+                        }
+                    }
+                };
+            try {
+                tree.write("a.c", "int alpha() {}\n");
+                thread.start();
+                awaitIndexed(tree, "a.c");
+
+                // a new file in a new directory, then the first one goes
+                tree.write("lib/b.c", "int beta() {}\n");
+                awaitIndexed(tree, "a.c", "lib/b.c");
+                Files.delete(tree.resolve("a.c"));
+                awaitIndexed(tree, "lib/b.c");
+
+                // closed, e.g. by the shutdown hook: the loop ends and
+                // late batches don't touch the closed shards
+                watcher.close();
+                thread.join(TIMEOUT_MILLIS);
+                assertFalse(thread.isAlive());
+                assertNull(failure[0]);
+                watcher.apply();
+                watcher.commit();
+            } finally {
+                watcher.close();
+            }
+        }
+    }
+}
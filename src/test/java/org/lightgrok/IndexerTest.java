@@ -0,0 +1,81 @@
+package org.lightgrok;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IndexerTest {
+    private TempRoot mTree;
+
+    @Before public void setUp() throws Exception {
+        mTree = new TempRoot("indexer");
+    }
+
+    @After public void tearDown() throws Exception {
+        mTree.close();
+    }
+
+    @Test public void testIncremental() throws Exception {
+        mTree.write("a.c", "int alpha() {}\n");
+        mTree.write("lib/b.c", "int beta() {}\n");
+        mTree.write("lib/c.c", "int gamma() {}\n");
+        mTree.index(false);
+
+        // same size, a later mtime
+        Path a = mTree.resolve("a.c");
+        FileTime before = Files.getLastModifiedTime(a);
+        mTree.write("a.c", "int delta() {}\n");
+        Files.setLastModifiedTime(a, FileTime.fromMillis(before.toMillis() + 2000));
+        Files.delete(mTree.resolve("lib/b.c"));
+        mTree.write("d.c", "int omega() {}\n");
+        mTree.index(true);
+
+        int maxDoc;
+        try (IndexReader reader = mTree.openReader()) {
+            assertEquals(new HashSet<String>(Arrays.asList("a.c", "d.c", "lib/c.c")),
+                         mTree.indexed(reader));
+            assertEquals(3, reader.numDocs());
+            assertEquals(0, TempRoot.count(reader, "alpha"));
+            assertEquals(1, TempRoot.count(reader, "delta"));
+            assertEquals(0, TempRoot.count(reader, "beta"));
+            maxDoc = reader.maxDoc();
+        }
+
+        // nothing changed: nothing is written
+        mTree.index(true);
+        try (IndexReader reader = mTree.openReader()) {
+            assertEquals(3, reader.numDocs());
+            assertEquals(maxDoc, reader.maxDoc());
+        }
+    }
+
+    /** Paths indexed by a full run on threads. */
+    Set<String> indexWith(int threads) throws Exception {
+        Indexer indexer = Indexer.createIndexerWithRoot(mTree.root().toString());
+        indexer.setThreads(threads);
+        indexer.doIndex();
+        try (IndexReader reader = mTree.openReader()) {
+            assertEquals(0, reader.numDeletedDocs());
+            assertEquals(reader.numDocs(), TempRoot.count(reader, "return"));
+            return mTree.indexed(reader);
+        }
+    }
+
+    @Test public void testThreads() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            mTree.write("d" + i % 7 + "/f" + i + ".c", "int fn" + i + "() { return " + i + "; }\n");
+        }
+        Set<String> single = indexWith(1);
+        assertEquals(200, single.size());
+        assertEquals(single, indexWith(4));
+    }
+}
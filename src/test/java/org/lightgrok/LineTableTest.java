@@ -0,0 +1,40 @@
+package org.lightgrok;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LineTableTest {
+    @Test public void testAsciiLines() throws Exception {
+        String text = "first\nsecond line\n\nlast";
+        LineTable table = LineTable.decode(
+            LineTable.encode(text, ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))));
+
+        assertEquals(4, table.lineCount());
+        assertEquals(0, table.lineOf(0));
+        assertEquals(0, table.lineOf(5));
+        assertEquals(1, table.lineOf(6));
+        assertEquals(2, table.lineOf(18));
+        assertEquals(3, table.lineOf(19));
+        assertEquals(6, table.byteStart(1));
+        assertEquals(18, table.byteEnd(1));
+        assertEquals(text.length(), table.byteEnd(3));
+    }
+
+    @Test public void testMultiByteLines() throws Exception {
+        String text = "\u00fcber\nna\u00efve \u4e2d\nend";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        LineTable table = LineTable.decode(LineTable.encode(text, ByteBuffer.wrap(bytes)));
+
+        assertEquals(3, table.lineCount());
+        assertEquals(2, table.lineOf(text.indexOf("end")));
+        assertEquals(bytes.length - 3, table.byteStart(2));
+        assertEquals(6, table.byteStart(1));
+        // the same read as a stream
+        assertEquals(LineTable.encode(text, ByteBuffer.wrap(bytes)),
+                     LineTable.encode(FileBytes.reader(ByteBuffer.wrap(bytes)),
+                                      ByteBuffer.wrap(bytes)));
+    }
+}
@@ -0,0 +1,84 @@
+package org.lightgrok;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RegexPrefilterTest {
+    static final List<String> TEXTS = Arrays.asList(
+        "int foo_get_value(void);",
+        "void foo_set_value(int v) {}",
+        "foo_put_value",
+        "Hello World\nsecond line",
+        "a.b.c -> x::y",
+        "camelCaseName = 42;",
+        "abcdefghijkllmno");
+
+    static final List<String> PATTERNS = Arrays.asList(
+        "foo_(get|set)_\\w+", "foo_[gs]et", "FOO_.*_VALUE", "hello\\s+world",
+        "^second", "(?:hello|world) ?", "x::y$", "a\\.b\\.c", "\\Qa.b\\E",
+        "camel(Case)+Name", "name\\b", "(?-i)Hello", "val(?=ue)", "[^x]oo_",
+        "(a|b)*c", "\\d{2}", "foo_(put|get)_value|camelcase", "(?x) hello",
+        "\\0141bcdef", "\\x61bcdef", "\\0061bc", "(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)(k)(l)\\12mno",
+        "(k)(l)\\2mno");
+
+    @Test public void testNeverDropsAMatch() throws Exception {
+        RAMDirectory dir = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new TrigramAnalyzer()))) {
+            for (String text : TEXTS) {
+                Document doc = new Document();
+                doc.add(new TextField(TrigramAnalyzer.FIELD, text, Field.Store.YES));
+                writer.addDocument(doc);
+            }
+        }
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (String regex : PATTERNS) {
+                Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+                boolean[] candidate = new boolean[TEXTS.size()];
+                for (ScoreDoc hit : searcher.search(RegexPrefilter.query(regex), 100).scoreDocs) {
+                    candidate[hit.doc] = true;
+                }
+                for (int i = 0; i < TEXTS.size(); i++) {
+                    if (pattern.matcher(TEXTS.get(i)).find()) {
+                        assertTrue(regex + " on " + TEXTS.get(i), candidate[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test public void testRequiredLiterals() {
+        assertEquals(Arrays.asList("foo_get_", "foo_set_"),
+                     Arrays.asList(literals(RegexPrefilter.parse("foo_(get|set)_\\w+").toNode())));
+        assertTrue(RegexPrefilter.query("\\w+_value") instanceof MatchAllDocsQuery == false);
+        assertTrue(RegexPrefilter.query("a.*b") instanceof MatchAllDocsQuery);
+        assertTrue(RegexPrefilter.query("(?x) foo bar") instanceof MatchAllDocsQuery);
+        // the whole escape is one char, or one back reference
+        assertEquals("abcdef", ((RegexPrefilter.Literal) RegexPrefilter.parse("\\0141bcdef").toNode()).text);
+        assertEquals("mno", ((RegexPrefilter.Literal) RegexPrefilter.parse("(l)\\12mno").toNode()).text);
+    }
+
+    static String[] literals(RegexPrefilter.Node node) {
+        RegexPrefilter.Combination or = (RegexPrefilter.Combination) node;
+        assertFalse(or.and);
+        String[] texts = new String[or.children.size()];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = ((RegexPrefilter.Literal) or.children.get(i)).text;
+        }
+        return texts;
+    }
+}
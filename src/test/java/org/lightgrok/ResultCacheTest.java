@@ -0,0 +1,61 @@
+package org.lightgrok;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+    static void commit(Path indexDir) throws Exception {
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(indexDir),
+                                                  new IndexWriterConfig(new KeywordAnalyzer()))) {
+            writer.addDocument(new Document());
+        }
+    }
+
+    @Test public void testInvalidation() throws Exception {
+        Path base = Files.createTempDirectory("cache");
+        try {
+            Path indexDir = base.resolve("index");
+            commit(indexDir);
+            Path file = base.resolve("a.c");
+            Files.write(file, "int foo;\n".getBytes(StandardCharsets.UTF_8));
+            Map<String, Indexer.Stamp> candidates = new HashMap<String, Indexer.Stamp>();
+            candidates.put(file.toString(), ResultCache.stamp(file.toString()));
+            List<String> lines = Arrays.asList(file + ":1:\tint foo;");
+
+            ResultCache cache = ResultCache.createCacheWithIndex(indexDir);
+            assertNull(cache.lookup("substring foo"));
+            cache.store("substring foo", lines, candidates);
+            assertEquals(lines, cache.lookup("substring foo"));
+            assertEquals(lines, ResultCache.createCacheWithIndex(indexDir).lookup("substring foo"));
+            assertNull(cache.lookup("substring fo"));
+
+            // a candidate changed
+            Files.setLastModifiedTime(file, FileTime.fromMillis(1000));
+            assertNull(cache.lookup("substring foo"));
+            candidates.put(file.toString(), ResultCache.stamp(file.toString()));
+            cache.store("substring foo", lines, candidates);
+            assertEquals(lines, cache.lookup("substring foo"));
+
+            // the index changed
+            commit(indexDir);
+            assertNull(ResultCache.createCacheWithIndex(indexDir).lookup("substring foo"));
+        } finally {
+            IndexShards.clear(base);
+            Files.delete(base);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.lightgrok;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SearchServerTest {
+    static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    static String text(ByteArrayOutputStream out) throws Exception {
+        return new String(out.toByteArray(), "UTF-8").replace(System.lineSeparator(), "\n");
+    }
+
+    @Test public void testForward() throws Exception {
+        // the token goes below the index root
+        try (TempRoot tree = new TempRoot("server")) {
+            forward(tree);
+        }
+    }
+
+    void forward(TempRoot tree) throws Exception {
+        final int port = freePort();
+        // no server yet: the caller does the work itself
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse(SearchClient.forward(port, new String[] { "-search", "x" }, out));
+        assertEquals(0, out.size());
+
+        final SearchServer server = SearchServer.createServerOnPort(port, new SearchServer.RequestHandler() {
+                @Override
+                public void handle(SearchServer s, String[] args, PrintStream o) throws Exception {
+                    if (args.length == 0) {
+                        throw new IllegalArgumentException("no arguments");
+                    }
+                    for (String arg : args) {
+                        o.println(arg);
+                    }
+                }
+            });
+        Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        server.serve();
+                    } catch (Exception e) {
+                        // ends with the test run
+                    }
+                }
+            };
+        thread.setDaemon(true);
+        thread.start();
+        // the token is written once the port is bound
+        for (int i = 0; i < 100 && !Files.exists(SearchServer.tokenFile(port)); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(SearchServer.tokenFile(port).startsWith(tree.indexDirectory().getParent()));
+        assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+                     Files.getPosixFilePermissions(SearchServer.tokenFile(port)));
+
+        // exactly what the handler printed, arguments as sent
+        out.reset();
+        String[] args = { "-root", "/src", "-search", "\u00e9t\u00e9 x" };
+        assertTrue(SearchClient.forward(port, args, out));
+        assertEquals("-root\n/src\n-search\n\u00e9t\u00e9 x\n", text(out));
+
+        // a failing request is answered, and the server goes on
+        out.reset();
+        assertTrue(SearchClient.forward(port, new String[0], out));
+        assertTrue(text(out).startsWith("lightgrok server: "));
+        out.reset();
+        assertTrue(SearchClient.forward(port, new String[] { "-def", "main" }, out));
+        assertEquals("-def\nmain\n", text(out));
+
+        // without the token nothing is run
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+            request.writeUTF("guess");
+            request.flush();
+            String answer = new String(ByteStreams.toByteArray(socket.getInputStream()), "UTF-8");
+            assertTrue(answer.startsWith("lightgrok server: not the token"));
+            assertFalse(answer.contains("guess"));
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package org.lightgrok;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SearcherTest {
+    private TempRoot mTree;
+
+    @Before public void setUp() throws Exception {
+        mTree = new TempRoot("searcher");
+    }
+
+    @After public void tearDown() throws Exception {
+        mTree.close();
+    }
+
+    /** The grep lines a search prints, without the header. */
+    List<String> search(String query, int threads, int maxCount, boolean streaming)
+        throws Exception {
+        Searcher searcher = Searcher.createSearcherWithRoot(mTree.root().toString());
+        searcher.setThreads(threads);
+        searcher.setMaxCount(maxCount);
+        searcher.setStreaming(streaming);
+        searcher.setCache(false);
+        return search(searcher, query);
+    }
+
+    static List<String> search(Searcher searcher, String query) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        searcher.setOutput(out);
+        searcher.doSearch(query);
+        List<String> lines = new ArrayList<String>(
+            Arrays.asList(new String(bytes.toByteArray(), "UTF-8").split("\n")));
+        assertTrue(lines.remove(0).startsWith("Index of directory"));
+        return lines;
+    }
+
+    static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test public void testLongToken() throws Exception {
+        // minified: one token too long for the term vector
+        mTree.write("app.min.js", "var s=\"" + repeat('a', 300) + "zorblax" + repeat('b', 300) + "\";\n");
+        mTree.write("other.js", "var zorblax = 1;\n");
+        mTree.index(false);
+
+        List<String> lines = search("zorblax", 1, 0, false);
+        // in the order the indexing threads happened to add the files
+        Collections.sort(lines);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith(mTree.resolve("app.min.js") + ":1:"));
+        assertEquals(mTree.resolve("other.js") + ":1:\tvar zorblax = 1;", lines.get(1));
+
+        // next to a short token that matches, and a long one that doesn't
+        String inside = "var s=\"" + repeat('a', 300) + "zorblax" + repeat('b', 300) + "\";";
+        mTree.write("mixed.js", inside + "\nvar zorblax = 1;\n"
+                    + "var t=\"" + repeat('c', 300) + "\";\n" + inside + "\n");
+        mTree.index(true);
+        String mixed = mTree.resolve("mixed.js").toString();
+        List<String> found = new ArrayList<String>();
+        for (String line : search("zorblax", 1, 0, false)) {
+            if (line.startsWith(mixed + ":")) {
+                found.add(line.substring(mixed.length(), line.indexOf('\t')));
+            }
+        }
+        assertEquals(Arrays.asList(":1:", ":2:", ":4:"), found);
+    }
+
+    @Test public void testLargeFile() throws Exception {
+        // read through streams at indexing, line numbers as usual
+        StringBuilder text = new StringBuilder();
+        int line = 0;
+        while (text.length() < FileBytes.MAP_THRESHOLD) {
+            text.append("// na\u00efve \u4e2d filler\n");
+            line++;
+        }
+        text.append("int zorblax() { return 1; }\n");
+        mTree.write("big.c", text.toString());
+        mTree.index(false);
+
+        assertEquals(Arrays.asList(mTree.resolve("big.c") + ":" + (line + 1)
+                                   + ":\tint zorblax() { return 1; }"),
+                     search("zorblax", 1, 0, false));
+        try (IndexReader reader = mTree.openReader()) {
+            assertEquals(1, reader.docFreq(new Term(SymbolScanner.FIELD, "zorblax")));
+        }
+    }
+
+    @Test public void testLongQualifiedWord() throws Exception {
+        StringBuilder chain = new StringBuilder("x = a");
+        for (int i = 0; i < 60; i++) {
+            chain.append(".next");
+        }
+        chain.append(".zorblaxHelper();");
+        mTree.write("chain.js", "var y;\n" + chain + "\n");
+        mTree.index(false);
+
+        Searcher searcher = Searcher.createSearcherWithRoot(mTree.root().toString());
+        searcher.setWord(true);
+        searcher.setCache(false);
+        List<String> lines = search(searcher, "zorblax");
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).startsWith(mTree.resolve("chain.js") + ":2:"));
+    }
+
+    List<String> findFiles(String name, int maxCount) throws Exception {
+        Searcher searcher = Searcher.createSearcherWithRoot(mTree.root().toString());
+        searcher.setFiles(true);
+        searcher.setMaxCount(maxCount);
+        return search(searcher, name);
+    }
+
+    @Test public void testFileLimitCached() throws Exception {
+        for (int i = 0; i < 150; i++) {
+            mTree.write(String.format("n%03d.txt", i), "x\n");
+        }
+        mTree.index(false);
+
+        assertEquals(FileFinder.DEFAULT_LIMIT, findFiles("n", 0).size());
+        // cut at the default limit, that's no answer for a higher one
+        assertEquals(150, findFiles("n", 500).size());
+        assertEquals(150, findFiles("n", 500).size());
+        assertEquals(10, findFiles("n", 10).size());
+        assertEquals(FileFinder.DEFAULT_LIMIT, findFiles("n", 0).size());
+    }
+
+    @Test public void testStreamingCachedApart() throws Exception {
+        Searcher searcher = Searcher.createSearcherWithRoot(mTree.root().toString());
+        String ranked = searcher.cacheKey("needle");
+        searcher.setStreaming(true);
+        assertNotEquals(ranked, searcher.cacheKey("needle"));
+    }
+
+    /** Files with a few matching lines each, all different. */
+    void writeHits(int files) throws Exception {
+        for (int i = 0; i < files; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int line = 0; line < 3; line++) {
+                text.append("int needle_").append(i).append('_').append(line).append(";\n");
+                text.append("int other;\n");
+            }
+            mTree.write("d" + i % 5 + "/f" + i + ".c", text.toString());
+        }
+        mTree.index(false);
+    }
+
+    @Test public void testParallelVerificationOrder() throws Exception {
+        writeHits(60);
+        List<String> sequential = search("needle", 1, 0, false);
+        assertEquals(180, sequential.size());
+        assertEquals(sequential, search("needle", 4, 0, false));
+        // cut at the same lines, not the ones verified first
+        assertEquals(sequential.subList(0, 10), search("needle", 4, 10, false));
+        assertEquals(sequential.subList(0, 100), search("needle", 4, 100, false));
+    }
+
+    @Test public void testMaxCountWaitsForVerification() throws Exception {
+        writeHits(60);
+        final AtomicInteger running = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            4, 4, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+                @Override
+                protected <T> RunnableFuture<T> newTaskFor(final Callable<T> task) {
+                    return super.newTaskFor(new Callable<T>() {
+                            @Override
+                            public T call() throws Exception {
+                                running.incrementAndGet();
+                                try {
+                                    return task.call();
+                                } finally {
+                                    running.decrementAndGet();
+                                }
+                            }
+                        });
+                }
+            };
+        try {
+            for (boolean streaming : new boolean[] { false, true }) {
+                Searcher searcher = Searcher.createSearcherWithRoot(mTree.root().toString());
+                searcher.setThreads(4);
+                searcher.setExecutor(executor);
+                searcher.setMaxCount(1);
+                searcher.setStreaming(streaming);
+                searcher.setCache(false);
+                assertEquals(1, search(searcher, "needle").size());
+                // the index is closed now, nothing may still read it
+                assertEquals(0, running.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test public void testStreaming() throws Exception {
+        writeHits(30);
+        List<String> collected = search("needle", 1, 0, false);
+        assertEquals(90, collected.size());
+        List<String> streamed = search("needle", 2, 0, true);
+        // streamed as the index is searched, the same lines
+        Collections.sort(collected);
+        Collections.sort(streamed);
+        assertEquals(collected, streamed);
+
+        List<String> first = search("needle", 2, 7, true);
+        assertEquals(7, first.size());
+        assertTrue(collected.containsAll(first));
+    }
+}
@@ -0,0 +1,63 @@
+package org.lightgrok;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StatsTest {
+    @Test public void testRecord() {
+        Stats parent = Stats.create();
+        Stats stats = Stats.createWithParent(parent);
+        for (int i = 1; i <= 100; i++) {
+            stats.record(Stats.Stage.READ, 10, i * 1000, 0);
+        }
+        stats.start(Stats.Stage.VERIFY).stop();
+
+        assertEquals(100L, (long) stats.getCounts().get("read"));
+        assertEquals(1L, (long) stats.getCounts().get("verify"));
+        assertEquals(0L, (long) stats.getCounts().get("walk"));
+        assertEquals(1000L, (long) stats.getBytes().get("read"));
+        assertEquals(stats.getCounts(), parent.getCounts());
+
+        assertTrue(stats.getReport().contains("read"));
+        assertFalse(stats.getReport().contains("walk"));
+        assertTrue(stats.getJson().contains("\"read\": {\"count\": 100"));
+
+        stats.reset();
+        assertEquals(0L, (long) stats.getCounts().get("read"));
+        assertEquals(100L, (long) parent.getCounts().get("read"));
+    }
+
+    @Test public void testDisabled() {
+        Stats.DISABLED.start(Stats.Stage.READ).stop(100);
+        Stats.DISABLED.record(Stats.Stage.READ, 1, 1, 1);
+        assertEquals(0L, (long) Stats.DISABLED.getCounts().get("read"));
+    }
+
+    @Test public void testBucket() {
+        assertEquals(0, Stats.bucket(0));
+        assertEquals(0, Stats.bucket(1));
+        assertEquals(10, Stats.bucket(1024));
+        assertEquals(10, Stats.bucket(2047));
+        assertEquals(Stats.BUCKETS - 1, Stats.bucket(Long.MAX_VALUE));
+    }
+
+    @Test public void testMBean() throws Exception {
+        Stats stats = Stats.create();
+        stats.record(Stats.Stage.SEARCH, 0, 5000000, 0);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.lightgrok:type=Stats,name=test");
+        server.registerMBean(stats, name);
+        try {
+            assertTrue(((String) server.getAttribute(name, "Report")).contains("search"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, (long) stats.getCounts().get("search"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
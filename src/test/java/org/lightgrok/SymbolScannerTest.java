@@ -0,0 +1,60 @@
+package org.lightgrok;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SymbolScannerTest {
+    static List<String> names(List<SymbolScanner.Symbol> symbols) {
+        List<String> names = new ArrayList<String>();
+        for (SymbolScanner.Symbol symbol : symbols) {
+            names.add(symbol.name + ":" + symbol.line + ":" + symbol.kind);
+        }
+        return names;
+    }
+
+    @Test public void testCpp() {
+        String text =
+            "#define MAX_LEN 10\n" +
+            "class CONTENT_EXPORT Foo : public Bar {\n" +
+            " public:\n" +
+            "  int size() const;\n" +
+            "};\n" +
+            "static int helper(int x);\n" +
+            "int Foo::size() const {\n" +
+            "  return helper(1);\n" +
+            "}\n" +
+            "Foo::Foo(int x)\n" +
+            "int main() { return 0; }\n";
+        assertEquals(Arrays.asList("MAX_LEN:1:macro", "Foo:2:class", "size:7:function",
+                                   "Foo:10:function", "main:11:function"),
+                     names(SymbolScanner.scan(Paths.get("x.cc"), text)));
+    }
+
+    @Test public void testJava() {
+        String text =
+            "public class Searcher {\n" +
+            "    private boolean mWord = false;\n" +
+            "    public void setWord(boolean word) {\n" +
+            "        return foo(bar);\n" +
+            "        String s = String.format(\"%d\", 1);\n" +
+            "    }\n" +
+            "}\n";
+        assertEquals(Arrays.asList("Searcher:1:class", "mWord:2:field", "setWord:3:method"),
+                     names(SymbolScanner.scan(Paths.get("Searcher.java"), text)));
+    }
+
+    @Test public void testEncodeRoundTrip() {
+        List<SymbolScanner.Symbol> symbols =
+            SymbolScanner.scan(Paths.get("x.py"), "class A:\n    def run(self):\tpass\n");
+        List<SymbolScanner.Symbol> decoded = SymbolScanner.decode(SymbolScanner.encode(symbols));
+        assertEquals(names(symbols), names(decoded));
+        assertEquals("def run(self):\tpass", decoded.get(1).text);
+        assertTrue(SymbolScanner.scan(Paths.get("README"), "class A:").isEmpty());
+        assertEquals("bar", SymbolScanner.simpleName("Foo::bar"));
+    }
+}
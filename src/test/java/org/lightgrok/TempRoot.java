@@ -0,0 +1,113 @@
+package org.lightgrok;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Bits;
+
+/**
+ * A source tree in a temporary directory and the index built from it,
+ * for the tests that index.  Indexes go below the same directory until
+ * close(), which deletes it.
+ */
+class TempRoot implements Closeable {
+    private final Path mBase;
+    private final Path mRoot;
+    private final Path mPrevious;
+
+    TempRoot(String prefix) throws IOException {
+        mBase = Files.createTempDirectory(prefix);
+        mRoot = mBase.resolve("src");
+        Files.createDirectories(mRoot);
+        mPrevious = PathProvider.rootIndexDirectory();
+        PathProvider.setRootIndexDirectory(mBase.resolve("index"));
+    }
+
+    Path root() {
+        return mRoot;
+    }
+
+    Path resolve(String path) {
+        return mRoot.resolve(path);
+    }
+
+    Path indexDirectory() {
+        return PathProvider.indexDirectory(mRoot.toString());
+    }
+
+    /** Write text to path below the root, creating its directories. */
+    Path write(String path, String text) throws IOException {
+        Path file = resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    void index(boolean incremental) {
+        Indexer indexer = Indexer.createIndexerWithRoot(mRoot.toString());
+        indexer.setIncremental(incremental);
+        indexer.setThreads(2);
+        indexer.doIndex();
+    }
+
+    IndexReader openReader() throws IOException {
+        return IndexShards.openReader(indexDirectory());
+    }
+
+    /** Paths below the root of the live documents, from their path field. */
+    Set<String> indexed(IndexReader reader) throws IOException {
+        Set<String> paths = new HashSet<String>();
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        for (int doc = 0; doc < reader.maxDoc(); doc++) {
+            if (liveDocs == null || liveDocs.get(doc)) {
+                paths.add(mRoot.relativize(Paths.get(reader.document(doc).get("path"))).toString());
+            }
+        }
+        return paths;
+    }
+
+    /** Number of live documents with word in their contents. */
+    static int count(IndexReader reader, String word) throws IOException {
+        return new IndexSearcher(reader).count(new TermQuery(new Term("contents", word)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        PathProvider.setRootIndexDirectory(mPrevious);
+        delete(mBase);
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                    Files.delete(d);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+}
@@ -0,0 +1,33 @@
+package org.lightgrok;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TrigramAnalyzerTest {
+    @Test public void testQueryGramsMatchIndexedGrams() throws Exception {
+        String text = "int Foo::bar() {";
+        Set<String> indexed = new LinkedHashSet<String>();
+        try (TokenStream ts = new TrigramAnalyzer().tokenStream(TrigramAnalyzer.FIELD, text)) {
+            CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                indexed.add(term.toString());
+            }
+            ts.end();
+        }
+
+        assertEquals(TrigramAnalyzer.trigrams(text), indexed);
+        assertTrue(indexed.containsAll(TrigramAnalyzer.trigrams("FOO::B")));
+        assertTrue(indexed.contains("o::"));
+    }
+
+    @Test public void testShortQueriesHaveNoGrams() {
+        assertNull(TrigramAnalyzer.substringQuery("ab"));
+        assertNotNull(TrigramAnalyzer.substringQuery("abc"));
+    }
+}
@@ -0,0 +1,40 @@
+package org.lightgrok;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class WorkspaceTest {
+    @Test public void testFromFile() throws Exception {
+        try (TempRoot tree = new TempRoot("workspace")) {
+            tree.write("a.c", "int alpha;\n");
+            tree.index(false);
+            String root = tree.root().toString();
+            Path list = tree.write("roots.txt", "# mine\n" + root + "\nSECRET-TOKEN\n");
+
+            Workspace ws = Workspace.createWorkspaceFromFile(list.toString());
+            assertEquals(Arrays.asList(root), ws.roots());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(bytes, true, "UTF-8");
+            ws.setThreads(1);
+            ws.doSearch("alpha", new Workspace.Configurer() {
+                    @Override
+                    public void configure(Searcher searcher, String r) {
+                        searcher.setCache(false);
+                    }
+                }, out);
+            String text = new String(bytes.toByteArray(), "UTF-8");
+            // the unknown line by its number, never its text
+            assertTrue(text.contains(list + ":3: not an indexed root"));
+            assertFalse(text.contains("SECRET"));
+            assertTrue(text.contains(tree.resolve("a.c") + ":1:\tint alpha;"));
+            // and no index directory was made up for it
+            assertEquals(1, tree.indexDirectory().getParent().toFile().list().length);
+        }
+    }
+}
@@ -58,6 +58,14 @@ This requires the lg command to support --color-match, which is only in v0.14+"
   :type 'boolean
   :group 'lg)
 
+(defcustom lg-use-server nil
+  "Non-nil means searches are sent to a running `lightgrok -serve'.
+
+The server keeps the indexes open, so queries skip the cold index open.
+When no server is listening lightgrok falls back to searching itself."
+  :type 'boolean
+  :group 'lg)
+
 (require 'compile)
 
 (defvar lg-match-face 'match
@@ -90,8 +98,12 @@ This requires the lg command to support --color-match, which is only in v0.14+"
   "Run lg searching for the STRING given in DIRECTORY.
 If REGEXP is non-nil, treat STRING as a regular expression."
   (letrec ((default-directory (file-name-as-directory directory))
-           (arguments (list "-strip-root-lead" "-root" default-directory))
+           (arguments (list "-stream" "-strip-root-lead" "-root" default-directory))
            (compilation-scroll-output t))
+    (when regexp
+      (setq arguments (cons "-regex" arguments)))
+    (when lg-use-server
+      (setq arguments (cons "-client" arguments)))
     (unless (file-exists-p default-directory)
       (error "No such directory %s" default-directory))
     (compilation-start
@@ -100,6 +112,21 @@ If REGEXP is non-nil, treat STRING as a regular expression."
      'lg-mode
      (function (lambda (ignore) (concat "*lg-" string "*"))))))
 
+(defun lg/definition (symbol directory)
+  "Run lg listing where SYMBOL is defined in DIRECTORY's index."
+  (letrec ((default-directory (file-name-as-directory directory))
+           (arguments (list "-strip-root-lead" "-root" default-directory))
+           (compilation-scroll-output t))
+    (when lg-use-server
+      (setq arguments (cons "-client" arguments)))
+    (unless (file-exists-p default-directory)
+      (error "No such directory %s" default-directory))
+    (compilation-start
+     (lg/s-join " "
+                (append '("lightgrok") arguments (list "-def" (lg/shell-quote symbol))))
+     'lg-mode
+     (function (lambda (ignore) (concat "*lg-def-" symbol "*"))))))
+
 (defun lg/index (directory)
   "Run lg indexing for the DIRECTORY."
   (letrec ((default-directory (file-name-as-directory directory))
@@ -113,22 +140,40 @@ If REGEXP is non-nil, treat STRING as a regular expression."
      'lg-mode
      (function (lambda (ignore) (concat "*lg-indexing-" default-directory "*"))))))
 
-(defun lg/search/file (string directory &optional regexp)
-  "Run lg searching for the STRING given in DIRECTORY for filename.
-If REGEXP is non-nil, treat STRING as a regular expression."
-  (let ((default-directory (file-name-as-directory directory))
-        (arguments (if regexp
-                       (list "--nogroup" "-g" )
-                     (list "--literal" "--nogroup" "-g"))))
-    (if lg-highlight-search
-        (setq arguments (append '("--color" "--color-match" "'30;43'") arguments))
-      (setq arguments (append '("--nocolor") arguments)))
+(define-compilation-mode lg-file-mode "Lg-File"
+  "Lg file name results compilation mode, one path per line"
+  (let ((smbl  'compilation-lg-file)
+        (pttrn '("^\\(\\.?/[^:\n]+\\)$" 1 nil)))
+    (set (make-local-variable 'compilation-error-regexp-alist) (list smbl))
+    (set (make-local-variable 'compilation-error-regexp-alist-alist) (list (cons smbl pttrn)))))
+
+(defun lg/search/file (string directory)
+  "Run lg listing the files of DIRECTORY's index whose path fuzzily
+matches STRING, best first."
+  (letrec ((default-directory (file-name-as-directory directory))
+           (arguments (list "-strip-root-lead" "-root" default-directory))
+           (compilation-scroll-output t))
+    (when lg-use-server
+      (setq arguments (cons "-client" arguments)))
     (unless (file-exists-p default-directory)
       (error "No such directory %s" default-directory))
     (compilation-start
      (lg/s-join " "
-                (append '("lg") arguments (list (lg/shell-quote string))))
-     'lg-mode)))
+                (append '("lightgrok") arguments (list "-file" (lg/shell-quote string))))
+     'lg-file-mode
+     (function (lambda (ignore) (concat "*lg-file-" string "*"))))))
+
+(defun lg/search/workspace (string)
+  "Run lg searching for STRING in every indexed root at once."
+  (letrec ((arguments (list "-stream" "-workspace"))
+           (compilation-scroll-output t))
+    (when lg-use-server
+      (setq arguments (cons "-client" arguments)))
+    (compilation-start
+     (lg/s-join " "
+                (append '("lightgrok") arguments (list "-search" (lg/shell-quote string))))
+     'lg-mode
+     (function (lambda (ignore) (concat "*lg-workspace-" string "*"))))))
 
 (defun lg/dwim-at-point ()
   "If there's an active selection, return that.
@@ -166,6 +211,13 @@ for the given string."
   (interactive "sSearch string: ")
   (lg/search string (lg/project-root default-directory)))
 
+;;;###autoload
+(defun lg-start-server ()
+  "Start a `lightgrok -serve' daemon for `lg-use-server'."
+  (interactive)
+  (unless (get-process "lightgrok-server")
+    (start-process "lightgrok-server" "*lightgrok-server*" "lightgrok" "-serve")))
+
 ;;;###autoload
 (defun lg-index-project ()
   "Index the root of the current project for lg"
@@ -180,11 +232,17 @@ for the given regexp."
   (lg/search regexp (lg/project-root default-directory) t))
 
 ;;;###autoload
-(defun lg-project-filename (regexp)
-  "Guess the root of the current project and search it with lg -g
-for the given regexp."
-  (interactive "sSearch regexp: ")
-  (lg/search/file regexp (lg/project-root default-directory) t))
+(defun lg-project-filename (string)
+  "Guess the root of the current project and list its files whose
+path fuzzily matches the given string, e.g. \"rblock\" for RenderBlock.cpp."
+  (interactive "sFile name: ")
+  (lg/search/file string (lg/project-root default-directory)))
+
+;;;###autoload
+(defun lg-workspace (string)
+  "Search every root indexed by lg for the given string."
+  (interactive "sSearch string: ")
+  (lg/search/workspace string))
 
 (autoload 'symbol-at-point "thingatpt")
 
@@ -195,6 +253,13 @@ to the symbol under point."
    (interactive (list (read-from-minibuffer "Search string: " (lg/dwim-at-point))))
    (lg/search string (lg/project-root default-directory)))
 
+;;;###autoload
+(defun lg-definition-at-point (symbol)
+  "Guess the root of the current project and list the definitions
+of SYMBOL, defaulting to the symbol under point."
+   (interactive (list (read-from-minibuffer "Definition of: " (lg/dwim-at-point))))
+   (lg/definition symbol (lg/project-root default-directory)))
+
 ;;;###autoload
 (defun lg-regexp-project-at-point (regexp)
   "Same as ``lg-regexp-project'', but with the search regexp defaulting